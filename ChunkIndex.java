@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory-bounded index of content-defined chunks across many files, for estimating how much block-level
+ * deduplication would save and which files share their bytes. The file with the lowest index that contains a
+ * chunk owns it, whatever order files are added in; every other copy counts as reclaimable bytes, and each file
+ * that contains a chunk at all counts it once as bytes it shares with the owner, so a run of zeros repeated
+ * through two unrelated files does not make them look alike. The index keeps each file's sampled fingerprints
+ * and works out the totals once all files are in.
+ * <p>
+ * The index has a fixed budget of distinct chunks and of file list entries. Once either fills up, only chunks
+ * whose fingerprint has one more low bit clear are kept, which halves the index; the sample depends on content
+ * alone, so a chunk is either sampled in every file or in none, and each sampled chunk then stands for 2^bits
+ * chunks of the same size. Totals are estimates that get coarser as the sample shrinks, so a sampling level
+ * picked up front from the expected chunk count saves shrinking as files are added.
+ */
+final class ChunkIndex {
+    /** Bytes two files are estimated to share, the second being the one with the higher index. */
+    static final class SharedBytes {
+        final int first;
+        final int second;
+        final long bytes;
+
+        SharedBytes(int first, int second, long bytes) {
+            this.first = first;
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+    // A fingerprint, its owning file, its length and its occurrences per slot; a fingerprint per file list entry
+    private static final int BYTES_PER_SLOT = Long.BYTES + 3 * Integer.BYTES;
+    private static final int BYTES_PER_ENTRY = Long.BYTES;
+    private static final double MAX_LOAD = 0.75;
+
+    private long[] fingerprints;
+    private int[] owners;
+    private int[] lengths;
+    private int[] counts;
+    private final int capacity;
+    private int size;
+    private final long[][] fileFingerprints;
+    private final int[] fileCounts;
+    private final long entryCapacity;
+    private long entries;
+    private int samplingBits;
+    private boolean tallied;
+    private long chunkBytes;
+    private long duplicateBytes;
+    private final Map<Long, long[]> sharedBytes = new HashMap<>();
+
+    /**
+     * An index of {@code files} files in at most about {@code memoryBytes}, sampled up front for
+     * {@code expectedChunks} chunks; half the memory goes to distinct chunks and half to the files' lists.
+     */
+    ChunkIndex(long memoryBytes, long expectedChunks, int files) {
+        int slots = Integer.highestOneBit(
+            (int) Math.max(1024, Math.min(1 << 30, memoryBytes / 2 / BYTES_PER_SLOT)));
+        this.fingerprints = new long[slots];
+        this.owners = new int[slots];
+        this.lengths = new int[slots];
+        this.counts = new int[slots];
+        this.capacity = (int) (slots * MAX_LOAD);
+        this.fileFingerprints = new long[files][];
+        this.fileCounts = new int[files];
+        this.entryCapacity = Math.max(capacity, memoryBytes / 2 / BYTES_PER_ENTRY);
+        while ((expectedChunks >>> samplingBits) > Math.min(capacity, entryCapacity) && samplingBits < 32) {
+            samplingBits++;
+        }
+    }
+
+    /** Whether a chunk with this fingerprint is in the current sample; others can be skipped before adding. */
+    synchronized boolean sampled(long fingerprint) {
+        return (fingerprint & ((1L << samplingBits) - 1)) == 0;
+    }
+
+    synchronized int samplingBits() {
+        return samplingBits;
+    }
+
+    /** Chunk bytes seen, estimated from the sample. */
+    synchronized long chunkBytes() {
+        tally();
+        return chunkBytes;
+    }
+
+    /** Bytes block-level deduplication would reclaim, estimated from the sample. */
+    synchronized long duplicateBytes() {
+        tally();
+        return duplicateBytes;
+    }
+
+    /**
+     * Adds sampled chunks of one file, given as parallel arrays; a file may be added in several batches, and
+     * files in any order. Chunks that left the sample since they were read are skipped.
+     */
+    synchronized void add(int file, long[] chunkFingerprints, int[] chunkLengths, int count) {
+        for (int i = 0; i < count; i++) {
+            long fingerprint = chunkFingerprints[i];
+            if (!sampled(fingerprint)) {
+                continue;
+            }
+            if (size >= capacity || entries >= entryCapacity) {
+                shrinkSample();
+                if (!sampled(fingerprint)) {
+                    continue;
+                }
+            }
+            putOwner(fingerprint, file, chunkLengths[i]);
+            long[] list = fileFingerprints[file];
+            // A run of one chunk, such as zeros, needs only one entry; the table counts every occurrence
+            if (fileCounts[file] > 0 && list[fileCounts[file] - 1] == fingerprint) {
+                continue;
+            }
+            if (list == null) {
+                list = fileFingerprints[file] = new long[Math.max(16, count)];
+            } else if (fileCounts[file] == list.length) {
+                list = fileFingerprints[file] = Arrays.copyOf(list, list.length + (list.length >> 1));
+            }
+            list[fileCounts[file]++] = fingerprint;
+            entries++;
+        }
+        tallied = false;
+    }
+
+    /** Every pair of files found to share chunks, with the estimated bytes they share. */
+    synchronized List<SharedBytes> sharedBytes() {
+        tally();
+        List<SharedBytes> pairs = new ArrayList<>(sharedBytes.size());
+        for (Map.Entry<Long, long[]> pair : sharedBytes.entrySet()) {
+            pairs.add(new SharedBytes((int) (pair.getKey() >>> 32), (int) (long) pair.getKey(), pair.getValue()[0]));
+        }
+        return pairs;
+    }
+
+    /**
+     * Works out the totals: every occurrence of a chunk but one is reclaimable, and each file shares a chunk
+     * with its owner once however often it contains it, so the file lists are sorted to bring repeats together.
+     */
+    private void tally() {
+        if (tallied) {
+            return;
+        }
+        long weight = 1L << samplingBits;
+        chunkBytes = 0;
+        duplicateBytes = 0;
+        for (int slot = 0; slot < owners.length; slot++) {
+            if (owners[slot] != 0) {
+                chunkBytes += (long) counts[slot] * lengths[slot] * weight;
+                duplicateBytes += (counts[slot] - 1L) * lengths[slot] * weight;
+            }
+        }
+        sharedBytes.clear();
+        int mask = fingerprints.length - 1;
+        for (int file = 0; file < fileCounts.length; file++) {
+            long[] list = fileFingerprints[file];
+            int count = fileCounts[file];
+            if (count == 0) {
+                continue;
+            }
+            Arrays.sort(list, 0, count);
+            for (int i = 0; i < count; i++) {
+                long fingerprint = list[i];
+                while (i + 1 < count && list[i + 1] == fingerprint) {
+                    i++;
+                }
+                int slot = find(fingerprint, mask);
+                long bytes = lengths[slot] * weight;
+                int owner = owners[slot] - 1;
+                if (owner != file) {
+                    sharedBytes.computeIfAbsent(((long) owner << 32) | file, key -> new long[1])[0] += bytes;
+                }
+            }
+        }
+        tallied = true;
+    }
+
+    /** Makes {@code file} the fingerprint's owner if it has none yet or only owners with a higher index. */
+    private void putOwner(long fingerprint, int file, int length) {
+        int mask = fingerprints.length - 1;
+        // Low bits are zero in sampled fingerprints, so slots come from the high bits
+        for (int slot = slot(fingerprint, mask); ; slot = (slot + 1) & mask) {
+            if (owners[slot] == 0) {
+                fingerprints[slot] = fingerprint;
+                owners[slot] = file + 1;
+                lengths[slot] = length;
+                counts[slot] = 1;
+                size++;
+                return;
+            }
+            if (fingerprints[slot] == fingerprint) {
+                owners[slot] = Math.min(owners[slot], file + 1);
+                counts[slot]++;
+                return;
+            }
+        }
+    }
+
+    private int find(long fingerprint, int mask) {
+        int slot = slot(fingerprint, mask);
+        while (fingerprints[slot] != fingerprint || owners[slot] == 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Halves the sample, keeping only the chunks still in it, in the table and in every file's list. The lists
+     * are left with one entry per chunk, so a file made of few distinct chunks cannot keep the index full.
+     */
+    private void shrinkSample() {
+        samplingBits++;
+        long[] oldFingerprints = fingerprints;
+        int[] oldOwners = owners;
+        int[] oldLengths = lengths;
+        int[] oldCounts = counts;
+        fingerprints = new long[oldFingerprints.length];
+        owners = new int[oldOwners.length];
+        lengths = new int[oldLengths.length];
+        counts = new int[oldCounts.length];
+        size = 0;
+        int mask = fingerprints.length - 1;
+        for (int i = 0; i < oldOwners.length; i++) {
+            if (oldOwners[i] != 0 && sampled(oldFingerprints[i])) {
+                int slot = slot(oldFingerprints[i], mask);
+                while (owners[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                fingerprints[slot] = oldFingerprints[i];
+                owners[slot] = oldOwners[i];
+                lengths[slot] = oldLengths[i];
+                counts[slot] = oldCounts[i];
+                size++;
+            }
+        }
+        entries = 0;
+        for (int file = 0; file < fileCounts.length; file++) {
+            long[] list = fileFingerprints[file];
+            if (list == null) {
+                continue;
+            }
+            int sampled = 0;
+            for (int i = 0; i < fileCounts[file]; i++) {
+                if (sampled(list[i])) {
+                    list[sampled++] = list[i];
+                }
+            }
+            Arrays.sort(list, 0, sampled);
+            int kept = 0;
+            for (int i = 0; i < sampled; i++) {
+                if (kept == 0 || list[kept - 1] != list[i]) {
+                    list[kept++] = list[i];
+                }
+            }
+            fileCounts[file] = kept;
+            entries += kept;
+        }
+    }
+
+    private static int slot(long fingerprint, int mask) {
+        return (int) (fingerprint >>> 32 ^ fingerprint >>> 40) & mask;
+    }
+}
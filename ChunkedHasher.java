@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tree hashing for very large files. A file at or above the threshold is cut into fixed-size chunks, each
+ * chunk is digested on its own, and the file's hash is the digest of the chunk digests in order. The chunks
+ * of one file can then be read and digested by several threads at once, and files of the same size can be
+ * compared chunk by chunk, so reading stops where they first differ. All files of a given size are hashed
+ * the same way, which is all grouping needs; the hash cache keeps tree hashes apart from whole-file hashes.
+ */
+final class ChunkedHasher {
+    // Files at least this large get a tree hash (-Ddff.chunkedHashThreshold=bytes, 0 disables)
+    static final long THRESHOLD = Long.getLong("dff.chunkedHashThreshold", 1L << 30);
+    // Bytes per chunk (-Ddff.hashChunkSize=bytes), between 1 MB and 1 GB
+    static final int CHUNK_SIZE = (int) Math.max(1L << 20, Math.min(1L << 30, Long.getLong("dff.hashChunkSize", 64L << 20)));
+    // Chunks of a single file digested at once when it is hashed on its own (-Ddff.chunkThreads=N), within
+    // the read permits of its device
+    private static final int PARALLELISM = Math.max(1, Integer.getInteger("dff.chunkThreads", 4));
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+        Thread thread = new Thread(runnable, "dff-chunk");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ChunkedHasher() {
+    }
+
+    /** Whether files of {@code size} bytes are tree-hashed. */
+    static boolean applies(long size) {
+        return THRESHOLD > 0 && size >= THRESHOLD;
+    }
+
+    static int chunkCount(long size) {
+        return (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /** Bytes in chunk {@code index} of a file of {@code size} bytes; only the last chunk is shorter. */
+    static long chunkLength(long size, int index) {
+        return Math.min(CHUNK_SIZE, size - (long) index * CHUNK_SIZE);
+    }
+
+    /** Digests chunk {@code index} of the file. */
+    static byte[] hashChunk(Path file, int index, MessageDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return hashChunk(channel, channel.size(), index, digest);
+        }
+    }
+
+    /** Combines the digests of every chunk, in order, into the file's tree hash. */
+    static byte[] combine(byte[][] chunkHashes, MessageDigest digest) {
+        for (byte[] chunkHash : chunkHashes) {
+            digest.update(chunkHash);
+        }
+        return digest.digest();
+    }
+
+    /** Tree hash of the file, with up to {@code dff.chunkThreads} chunks digested at once. */
+    static byte[] hash(Path file, HashAlgorithm algorithm) throws IOException {
+        return hash(file, algorithm, new Semaphore(PARALLELISM - 1));
+    }
+
+    /**
+     * Tree hash of the file, read within a device's read limit: the calling thread is taken to hold one of the
+     * device's permits, and each further chunk reader takes another from {@code devicePermits} if one is free.
+     * On a device limited to one reader, such as a spinning disk, the chunks are read in order on this thread.
+     */
+    static byte[] hash(Path file, HashAlgorithm algorithm, Semaphore devicePermits) throws IOException {
+        return combine(hashChunks(file, algorithm, devicePermits), algorithm.newDigest());
+    }
+
+    /** Digests every chunk of the file, on this thread and on as many helpers as {@code devicePermits} allows. */
+    static byte[][] hashChunks(Path file, HashAlgorithm algorithm, Semaphore devicePermits) throws IOException {
+        int helpers = 0;
+        while (helpers < PARALLELISM - 1 && devicePermits.tryAcquire()) {
+            helpers++;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[][] chunkHashes = new byte[chunkCount(size)][];
+            // Every reader takes the next chunk not yet started; positional reads and mappings leave the
+            // channel's position alone, so the readers can share it
+            AtomicInteger nextChunk = new AtomicInteger();
+            List<Future<Void>> readers = new ArrayList<>(helpers);
+            for (int helper = 0; helper < Math.min(helpers, chunkHashes.length - 1); helper++) {
+                readers.add(POOL.submit(() -> {
+                    readChunks(channel, size, chunkHashes, nextChunk, algorithm);
+                    return null;
+                }));
+            }
+            try {
+                readChunks(channel, size, chunkHashes, nextChunk, algorithm);
+                for (Future<Void> helper : readers) {
+                    helper.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing " + file);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException(e.getCause().getMessage(), e.getCause());
+            } finally {
+                for (Future<Void> helper : readers) {
+                    helper.cancel(true);
+                }
+            }
+            return chunkHashes;
+        } finally {
+            devicePermits.release(helpers);
+        }
+    }
+
+    private static void readChunks(FileChannel channel, long size, byte[][] chunkHashes, AtomicInteger nextChunk,
+            HashAlgorithm algorithm) throws IOException {
+        MessageDigest digest = algorithm.newDigest();
+        for (int index = nextChunk.getAndIncrement(); index < chunkHashes.length; index = nextChunk.getAndIncrement()) {
+            chunkHashes[index] = hashChunk(channel, size, index, digest);
+        }
+    }
+
+    private static byte[] hashChunk(FileChannel channel, long size, int index, MessageDigest digest)
+            throws IOException {
+        long position = (long) index * CHUNK_SIZE;
+        FileHasher.digestRange(channel, position, Math.max(0, Math.min(CHUNK_SIZE, size - position)), digest);
+        return digest.digest();
+    }
+}
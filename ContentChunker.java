@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+
+/**
+ * Content-defined chunking with a gear rolling hash, as in FastCDC. Chunk boundaries are placed where the hash
+ * of the last 64 bytes has its top bits clear, so they depend on the content around them rather than on
+ * offsets: inserting or removing bytes only moves the boundaries next to the change, and two files that share
+ * long runs of bytes anywhere produce the same chunks for them. A stricter mask before the average size and a
+ * looser one after it keep chunk sizes close to the average, and every chunk is between the minimum and
+ * maximum size. Files are streamed through a fixed buffer, so memory does not grow with file size.
+ */
+final class ContentChunker {
+    interface ChunkConsumer {
+        /** Called once per chunk, in file order, with a 64-bit fingerprint of its bytes. */
+        void accept(long fingerprint, int length);
+    }
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long[] GEAR = gearTable();
+
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    /**
+     * Chunks averaging {@code averageSize} bytes, clamped to 256 bytes to 64 MB and rounded down to a power of
+     * two, from a quarter to four times that.
+     */
+    ContentChunker(int averageSize) {
+        int bits = 31 - Integer.numberOfLeadingZeros(Math.max(256, Math.min(64 << 20, averageSize)));
+        this.averageSize = 1 << bits;
+        this.minSize = this.averageSize / 4;
+        this.maxSize = this.averageSize * 4;
+        // The top bits of a gear hash depend on the most bytes, so boundaries test those
+        this.strictMask = -1L << (64 - (bits + 1));
+        this.looseMask = -1L << (64 - (bits - 1));
+    }
+
+    int averageSize() {
+        return averageSize;
+    }
+
+    /** Splits the file into chunks, reporting each to {@code consumer}. */
+    void chunk(Path file, ChunkConsumer consumer) throws IOException {
+        MessageDigest digest = new Murmur3Digest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long hash = 0;
+            int length = 0;
+            while (channel.read(buffer) > 0) {
+                int end = buffer.position();
+                int start = 0;
+                for (int position = 0; position < end; position++) {
+                    hash = (hash << 1) + GEAR[bytes[position] & 0xFF];
+                    length++;
+                    if (length < minSize) {
+                        continue;
+                    }
+                    if ((hash & (length < averageSize ? strictMask : looseMask)) == 0 || length >= maxSize) {
+                        digest.update(bytes, start, position + 1 - start);
+                        consumer.accept(fingerprint(digest.digest()), length);
+                        start = position + 1;
+                        hash = 0;
+                        length = 0;
+                    }
+                }
+                digest.update(bytes, start, end - start);
+                buffer.clear();
+            }
+            if (length > 0) {
+                consumer.accept(fingerprint(digest.digest()), length);
+            }
+        }
+    }
+
+    private static long fingerprint(byte[] digest) {
+        return ByteBuffer.wrap(digest).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+    }
+
+    private static long[] gearTable() {
+        // Fixed SplitMix64 sequence, so chunk boundaries are the same on every run and machine
+        long[] table = new long[256];
+        long state = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long value = state;
+            value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+            value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+            table[i] = value ^ (value >>> 31);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent directory walker. Each directory is listed by its own task with {@code Files.walkFileTree}
+ * limited to depth 1, so every entry costs a single attribute read, and subdirectories fan out across the
+ * pool instead of being visited one after another. Regular files are streamed to the sink as they are found,
+ * and counted with the time spent listing in the walk phase of the scan metrics. With a checkpoint, every
+ * directory listed is recorded in it, and the entries of a directory the checkpoint already holds are replayed
+ * from there instead of listed again, provided its modification time has not changed since; replayed files
+ * still get a fresh attribute read, since editing a file does not touch its directory.
+ */
+final class DirectoryWalker {
+    interface FileSink {
+        /** Called concurrently from walker threads. */
+        void accept(Path file, BasicFileAttributes attributes);
+    }
+
+    private final int threads;
+    private final ScanMetrics metrics;
+    private final ScanControl control;
+    private final ScanCheckpoint checkpoint;
+    private final FileSink sink;
+    private final AtomicInteger pendingDirectories = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private ExecutorService pool;
+
+    DirectoryWalker(int threads, ScanMetrics metrics, ScanControl control, FileSink sink) {
+        this(threads, metrics, control, null, sink);
+    }
+
+    DirectoryWalker(int threads, ScanMetrics metrics, ScanControl control, ScanCheckpoint checkpoint, FileSink sink) {
+        this.threads = Math.max(1, threads);
+        this.metrics = metrics;
+        this.control = control;
+        this.checkpoint = checkpoint;
+        this.sink = sink;
+    }
+
+    /** Walks the trees under {@code roots}, returning once every directory has been listed. */
+    void walk(List<Path> roots) throws InterruptedException {
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "dff-walk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Hold the count above zero until every root is queued, so a fast first root cannot finish the walk
+            pendingDirectories.incrementAndGet();
+            for (Path root : roots) {
+                submit(root);
+            }
+            if (pendingDirectories.decrementAndGet() == 0) {
+                finished.countDown();
+            }
+            finished.await();
+            control.check();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void submit(Path directory) {
+        pendingDirectories.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                if (control.proceed()) {
+                    listDirectory(directory);
+                }
+            } finally {
+                if (pendingDirectories.decrementAndGet() == 0) {
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    private void listDirectory(Path directory) {
+        long started = System.nanoTime();
+        long startedCpu = ScanMetrics.cpuTime();
+        if (!replay(directory)) {
+            read(directory);
+        }
+        metrics.time(ScanMetrics.Phase.WALK, started, startedCpu);
+    }
+
+    private void read(Path directory) {
+        long[] modified = {-1};
+        boolean[] failed = {false};
+        List<String> fileNames = new ArrayList<>();
+        List<String> subdirectories = new ArrayList<>();
+        try {
+            Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    // Read before the entries, so a change made while listing shows up as a newer time
+                    modified[0] = attributes.lastModifiedTime().toMillis();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    // At depth 1 subdirectories arrive here too; symbolic links are not followed into
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(file.getFileName().toString());
+                        submit(file);
+                    } else if (attributes.isRegularFile()) {
+                        accept(file, attributes, fileNames);
+                    } else if (attributes.isSymbolicLink()) {
+                        if (!acceptLinkedFile(file, fileNames)) {
+                            failed[0] = true;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    failed[0] = true;
+                    metrics.failed(ScanMetrics.Phase.WALK);
+                    System.err.println("Error walking directory: " + file + " - " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            failed[0] = true;
+            metrics.failed(ScanMetrics.Phase.WALK);
+            System.err.println("Error walking directory: " + directory + " - " + e.getMessage());
+        }
+        // A listing with errors is not recorded, so a resumed scan reads the directory again
+        if (checkpoint != null && !failed[0] && modified[0] >= 0) {
+            checkpoint.directoryListed(directory, new ScanCheckpoint.Listing(modified[0],
+                fileNames.toArray(new String[0]), subdirectories.toArray(new String[0])));
+        }
+    }
+
+    /**
+     * Feeds the sink from the checkpoint's record of {@code directory}, if it is still current. Only the entries
+     * come from the record; each file's attributes are read again, since it may have been edited in place.
+     */
+    private boolean replay(Path directory) {
+        ScanCheckpoint.Listing listing = checkpoint == null ? null : checkpoint.listing(directory);
+        if (listing == null) {
+            return false;
+        }
+        try {
+            if (Files.getLastModifiedTime(directory).toMillis() != listing.modified) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        for (String fileName : listing.fileNames) {
+            Path file = directory.resolve(fileName);
+            try {
+                // Recorded links point to regular files, so following them reads what the walk read
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    metrics.count(ScanMetrics.Phase.WALK, 1, attributes.size());
+                    sink.accept(file, attributes);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted without a change to the directory's time, e.g. within its timestamp resolution
+            } catch (IOException e) {
+                metrics.failed(ScanMetrics.Phase.WALK);
+                System.err.println("Error checking file: " + file + " - " + e.getMessage());
+            }
+        }
+        for (String subdirectory : listing.subdirectories) {
+            submit(directory.resolve(subdirectory));
+        }
+        return true;
+    }
+
+    private void accept(Path file, BasicFileAttributes attributes, List<String> fileNames) {
+        metrics.count(ScanMetrics.Phase.WALK, 1, attributes.size());
+        sink.accept(file, attributes);
+        if (checkpoint != null) {
+            fileNames.add(file.getFileName().toString());
+        }
+    }
+
+    private boolean acceptLinkedFile(Path link, List<String> fileNames) {
+        // Links to regular files were always scanned; links to directories were not
+        try {
+            BasicFileAttributes target = Files.readAttributes(link, BasicFileAttributes.class);
+            if (target.isRegularFile()) {
+                accept(link, target, fileNames);
+            }
+            return true;
+        } catch (IOException e) {
+            metrics.failed(ScanMetrics.Phase.WALK);
+            System.err.println("Error checking file: " + link + " - " + e.getMessage());
+            return false;
+        }
+    }
+}
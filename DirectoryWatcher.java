@@ -0,0 +1,133 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches scanned trees for created, modified and deleted entries. Events are coalesced: after the first one,
+ * changes are collected until the trees have been quiet for a while (or a maximum delay has passed), and each
+ * changed path is reported once, so copying thousands of files produces one update instead of a hash per write.
+ * New directories are registered as they appear; if the event queue overflows, the affected directory itself
+ * is reported so its contents are re-read.
+ */
+final class DirectoryWatcher implements Closeable {
+    interface ChangeSink {
+        /** Called on the watching thread with every path changed since the last call, in event order. */
+        void changed(Set<Path> paths) throws InterruptedException;
+    }
+
+    private final List<Path> roots;
+    private final long quietMillis;
+    private final long maxDelayMillis;
+    private final ChangeSink sink;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    DirectoryWatcher(List<Path> roots, long quietMillis, long maxDelayMillis, ChangeSink sink) throws IOException {
+        this.roots = roots;
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.sink = sink;
+        FileSystem fileSystem = roots.isEmpty() ? FileSystems.getDefault() : roots.get(0).getFileSystem();
+        this.watchService = fileSystem.newWatchService();
+    }
+
+    /** Registers the trees, then reports changes until {@link #close()} is called or the thread is interrupted. */
+    void watch() throws InterruptedException {
+        try {
+            for (Path root : roots) {
+                registerTree(root);
+            }
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                collect(watchService.take(), changed);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (true) {
+                    long wait = Math.min(quietMillis, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                    WatchKey key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        break;
+                    }
+                    collect(key, changed);
+                }
+                if (!changed.isEmpty()) {
+                    sink.changed(changed);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close(); stop watching
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory;
+        synchronized (watchedDirectories) {
+            directory = watchedDirectories.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; re-reading the whole directory catches up
+                changed.add(directory);
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            // Temporaries of a linking run are renamed over the duplicate, which reports the real path
+            if (child.getFileName().toString().endsWith(FileLinker.TEMP_SUFFIX)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                registerTree(child);
+            }
+            changed.add(child);
+        }
+        if (!key.reset()) {
+            // The directory is gone; its parent reports the deletion
+            synchronized (watchedDirectories) {
+                watchedDirectories.remove(key);
+            }
+        }
+    }
+
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    try {
+                        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                        synchronized (watchedDirectories) {
+                            watchedDirectories.put(key, directory);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Error watching directory: " + directory + " - " + e.getMessage());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.err.println("Error walking directory: " + file + " - " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error walking directory: " + start + " - " + e.getMessage());
+        }
+    }
+}
@@ -1,42 +1,52 @@
 import java.io.*;
 import java.nio.file.*;
-import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.stream.Stream;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 import javax.swing.*;
 import javax.swing.event.HyperlinkEvent;
 import javax.swing.event.HyperlinkListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.net.URI;
 
 public class DuplicateFileFinder {
-    private static final int BUFFER_SIZE = 8192;
-    private static final Set<String> IMAGE_EXTENSIONS = Set.of(
-        ".jpg", ".jpeg", ".png", ".gif", ".bmp", ".tiff", ".tif", ".webp"
-    );
-    private Map<String, List<Path>> currentDuplicates = new HashMap<>();
+    // Errors listed in a results dialog before the rest are summarised as a count
+    private static final int MAX_REPORTED_ERRORS = 20;
+    // How often the status bar reads the scan metrics
+    private static final int METRICS_REFRESH_MILLIS = 500;
+    
+    private Map<String, List<Path>> currentDuplicates = new ConcurrentHashMap<>();
     private Map<String, List<Path>> visualDuplicates = new HashMap<>();
-    private Map<String, String> fileHashes = new HashMap<>();
-    private Map<String, String> imageDHashes = new HashMap<>();
-    private List<Path> allScannedFiles = new ArrayList<>();
+    private final ScanEngine engine = new ScanEngine(ScanSettings.fromSystemProperties());
     private JPanel resultPanel;
     private JScrollPane resultScrollPane;
-    private List<JCheckBox> fileCheckBoxes = new ArrayList<>();
-    private JTextArea logArea;
+    private final DuplicateGroupsModel resultsModel = new DuplicateGroupsModel();
+    private JTable resultsTable;
+    private final FileLogModel logModel = new FileLogModel();
+    private JList<String> logList;
     private JPanel logPanel;
     private boolean logVisible = false;
+    private SwingWorker<Void, String> backgroundHashWorker;
+    private SwingWorker<String, String> scanWorker;
+    private DirectoryWatcher watcher;
     
     public static void main(String[] args) {
+        if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+            System.exit(DuplicateFileFinderCli.run(args));
+        }
         SwingUtilities.invokeLater(() -> new DuplicateFileFinder().createAndShowGUI());
     }
     
@@ -45,6 +55,7 @@ public class DuplicateFileFinder {
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(800, 500);
         frame.setLocationRelativeTo(null);
+        engine.metrics().registerMBean();
         
         JPanel mainPanel = new JPanel(new BorderLayout());
         
@@ -52,45 +63,97 @@ public class DuplicateFileFinder {
         
         JPanel folderPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 5));
         JTextField folderField = new JTextField(30);
+        folderField.setToolTipText("Several folders, e.g. on different drives, are separated by \"" + File.pathSeparator
+            + "\" and scanned together");
         JButton browseButton = new JButton("Browse");
+        JButton addFolderButton = new JButton("Add");
+        addFolderButton.setToolTipText("Add another folder to scan together with the ones already listed");
         
-        folderPanel.add(new JLabel("Folder:"));
+        folderPanel.add(new JLabel("Folders:"));
         folderPanel.add(folderField);
         folderPanel.add(browseButton);
+        folderPanel.add(addFolderButton);
         
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 5));
         JButton scanButton = new JButton("Find Duplicates");
+        JButton pauseButton = new JButton("Pause");
+        pauseButton.setToolTipText("Hold the scan after the files being read now; nothing is lost");
+        pauseButton.setVisible(false);
         JButton deleteSelectedButton = new JButton("Delete Selected Duplicates");
         deleteSelectedButton.setEnabled(false);
         deleteSelectedButton.setBackground(new Color(180, 50, 50));
         deleteSelectedButton.setForeground(Color.WHITE);
+        JButton linkSelectedButton = new JButton("Link Selected Duplicates");
+        linkSelectedButton.setEnabled(false);
         
         JButton toggleLogButton = new JButton("Show Log");
         JButton exportLogButton = new JButton("Export Log");
         exportLogButton.setEnabled(false);
+        JButton computeHashesButton = new JButton("Compute Missing Hashes");
+        computeHashesButton.setEnabled(false);
+        JCheckBox watchCheckBox = new JCheckBox("Watch for Changes");
+        watchCheckBox.setToolTipText("Keep the results up to date as files in the folder are added, changed or deleted");
         
         buttonPanel.add(scanButton);
+        buttonPanel.add(pauseButton);
         buttonPanel.add(deleteSelectedButton);
+        buttonPanel.add(linkSelectedButton);
         buttonPanel.add(toggleLogButton);
         buttonPanel.add(exportLogButton);
+        buttonPanel.add(computeHashesButton);
+        buttonPanel.add(watchCheckBox);
         
         topPanel.add(folderPanel, BorderLayout.NORTH);
         topPanel.add(buttonPanel, BorderLayout.SOUTH);
         
-        resultPanel = new JPanel();
-        resultPanel.setLayout(new BoxLayout(resultPanel, BoxLayout.Y_AXIS));
+        resultPanel = new JPanel(new BorderLayout());
         resultPanel.setBackground(Color.WHITE);
-        resultScrollPane = new JScrollPane(resultPanel);
+        
+        // Results are a model-backed table, so only the rows on screen are ever laid out or painted
+        resultsTable = new JTable(resultsModel);
+        resultsTable.setTableHeader(null);
+        resultsTable.setShowGrid(false);
+        resultsTable.setIntercellSpacing(new Dimension(0, 0));
+        resultsTable.setRowHeight(24);
+        resultsTable.setFillsViewportHeight(true);
+        resultsTable.setDefaultRenderer(Object.class, new DuplicateRowRenderer());
+        ToolTipManager.sharedInstance().registerComponent(resultsTable);
+        resultsTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = resultsTable.rowAtPoint(e.getPoint());
+                if (row < 0 || resultsModel.isTitle(row)) {
+                    return;
+                }
+                if (e.getX() < DuplicateRowRenderer.CHECKBOX_WIDTH) {
+                    toggleFile(row);
+                } else if (e.getClickCount() == 2) {
+                    openFileInExplorer(resultsModel.file(row).toString());
+                }
+            }
+        });
+        resultsTable.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0), "toggleFiles");
+        resultsTable.getActionMap().put("toggleFiles", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                for (int row : resultsTable.getSelectedRows()) {
+                    toggleFile(row);
+                }
+            }
+        });
+        
+        resultScrollPane = new JScrollPane(resultsTable);
         resultScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         resultScrollPane.getVerticalScrollBar().setUnitIncrement(16);
         resultScrollPane.getVerticalScrollBar().setBlockIncrement(64);
         
-        // Create log panel
-        logArea = new JTextArea(10, 0);
-        logArea.setEditable(false);
-        logArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
-        logArea.setBackground(new Color(248, 248, 248));
-        JScrollPane logScrollPane = new JScrollPane(logArea);
+        // Create log panel; lines are formatted only as they scroll into view
+        logList = new JList<>(logModel);
+        logList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        logList.setBackground(new Color(248, 248, 248));
+        logList.setVisibleRowCount(10);
+        logList.setPrototypeCellValue(logModel.prototypeLine());
+        JScrollPane logScrollPane = new JScrollPane(logList);
         
         logPanel = new JPanel(new BorderLayout());
         logPanel.setBorder(BorderFactory.createTitledBorder("Selected Files Log"));
@@ -98,118 +161,95 @@ public class DuplicateFileFinder {
         logPanel.setVisible(false);
         
         // Create split pane for results and log
-        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, resultScrollPane, logPanel);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, resultPanel, logPanel);
         splitPane.setDividerLocation(400);
         splitPane.setResizeWeight(0.7);
         
         displayMessage("Select a folder and click 'Find Duplicates' to start scanning.");
         
+        // Status bar with the live rates of the running phase; the timer polls the engine's counters,
+        // so the scan threads never have to call into the UI for them
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+        JLabel metricsLabel = new JLabel(" ");
+        JButton metricsButton = new JButton("Metrics");
+        metricsButton.setToolTipText("Files, data, errors and timings of each scan phase");
+        statusPanel.add(metricsLabel, BorderLayout.CENTER);
+        statusPanel.add(metricsButton, BorderLayout.EAST);
+        new Timer(METRICS_REFRESH_MILLIS, e -> metricsLabel.setText(metricsStatus())).start();
+        
         mainPanel.add(topPanel, BorderLayout.NORTH);
         mainPanel.add(splitPane, BorderLayout.CENTER);
+        mainPanel.add(statusPanel, BorderLayout.SOUTH);
         
-        browseButton.addActionListener(e -> {
-            JFileChooser chooser = new JFileChooser();
-            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-            if (chooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
-                folderField.setText(chooser.getSelectedFile().getAbsolutePath());
-            }
-        });
+        browseButton.addActionListener(e -> chooseFolders(frame, folderField, false));
+        addFolderButton.addActionListener(e -> chooseFolders(frame, folderField, true));
         
         scanButton.addActionListener(e -> {
-            String folderPath = folderField.getText().trim();
-            if (folderPath.isEmpty()) {
-                JOptionPane.showMessageDialog(frame, "Please select a folder first.");
+            if (scanWorker != null) {
+                // The scan stops after the files in flight and saves its checkpoint; done() restores the button
+                engine.control().cancel();
+                scanButton.setEnabled(false);
+                pauseButton.setEnabled(false);
+                displayMessage("Cancelling scan...");
                 return;
             }
             
-            File folder = new File(folderPath);
-            if (!folder.exists() || !folder.isDirectory()) {
-                JOptionPane.showMessageDialog(frame, "Invalid folder path.");
+            List<Path> roots = new ArrayList<>();
+            for (String folderPath : folderField.getText().split(Pattern.quote(File.pathSeparator))) {
+                if (folderPath.trim().isEmpty()) {
+                    continue;
+                }
+                File folder = new File(folderPath.trim());
+                if (!folder.exists() || !folder.isDirectory()) {
+                    JOptionPane.showMessageDialog(frame, "Invalid folder path: " + folder);
+                    return;
+                }
+                roots.add(folder.toPath());
+            }
+            if (roots.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, "Please select a folder first.");
                 return;
             }
             
+            boolean resume = true;
+            if (ScanEngine.hasCheckpoint(roots)) {
+                int choice = JOptionPane.showConfirmDialog(frame,
+                    "A previous scan of these folders was interrupted.\n\n"
+                        + "Resume it where it stopped? Choose No to scan everything again.",
+                    "Resume Scan",
+                    JOptionPane.YES_NO_CANCEL_OPTION,
+                    JOptionPane.QUESTION_MESSAGE);
+                if (choice != JOptionPane.YES_OPTION && choice != JOptionPane.NO_OPTION) {
+                    return;
+                }
+                resume = choice == JOptionPane.YES_OPTION;
+            }
+            boolean resumeScan = resume;
+            
+            if (backgroundHashWorker != null) {
+                backgroundHashWorker.cancel(true);
+                backgroundHashWorker = null;
+            }
+            
+            stopWatching();
+            // The log would otherwise keep drawing the previous results while they are replaced
+            logModel.clear();
+            exportLogButton.setEnabled(false);
             displayMessage("Scanning for duplicates...");
-            scanButton.setEnabled(false);
+            scanButton.setText("Cancel Scan");
+            pauseButton.setText("Pause");
+            pauseButton.setEnabled(true);
+            pauseButton.setVisible(true);
+            computeHashesButton.setEnabled(false);
             
-            SwingWorker<String, String> worker = new SwingWorker<String, String>() {
+            scanWorker = new SwingWorker<String, String>() {
                 @Override
                 protected String doInBackground() throws Exception {
-                    fileHashes.clear(); // Clear previous hashes
-                    imageDHashes.clear(); // Clear previous dHashes
-                    allScannedFiles.clear(); // Clear previous file list
-                    publish("Scanning files in directory...");
-                    Map<Long, List<Path>> sizeGroups = groupFilesBySize(folder.toPath());
-                    Map<String, List<Path>> duplicates = new HashMap<>();
-                    
-                    int totalFiles = 0;
-                    int duplicateGroups = 0;
-                    int duplicateFiles = 0;
-                    
-                    for (List<Path> files : sizeGroups.values()) {
-                        totalFiles += files.size();
-                        allScannedFiles.addAll(files); // Store all scanned files
-                    }
-                    
-                    publish(String.format("Found %d files. Analyzing for duplicates...", totalFiles));
-                    
-                    int processedGroups = 0;
-                    int totalGroups = (int) sizeGroups.values().stream().filter(files -> files.size() > 1).count();
-                    
-                    for (List<Path> files : sizeGroups.values()) {
-                        if (files.size() > 1) {
-                            processedGroups++;
-                            publish(String.format("Checking duplicates... (%d/%d groups)", processedGroups, totalGroups));
-                            Map<String, List<Path>> hashGroups = groupFilesByHash(files);
-                            for (Map.Entry<String, List<Path>> entry : hashGroups.entrySet()) {
-                                String hash = entry.getKey();
-                                // Store hash for ALL files, not just duplicates
-                                for (Path file : entry.getValue()) {
-                                    fileHashes.put(file.toString(), hash);
-                                }
-                                
-                                if (entry.getValue().size() > 1) {
-                                    duplicates.put(entry.getKey(), entry.getValue());
-                                    duplicateGroups++;
-                                    duplicateFiles += entry.getValue().size();
-                                }
-                            }
-                        } else {
-                            // Calculate hash for unique files too
-                            Path uniqueFile = files.get(0);
-                            try {
-                                String hash = calculateFileHash(uniqueFile);
-                                fileHashes.put(uniqueFile.toString(), hash);
-                            } catch (Exception e) {
-                                System.err.println("Error calculating hash for unique file: " + uniqueFile + " - " + e.getMessage());
-                            }
-                        }
-                    }
-                    
-                    // Phase 2: Visual duplicate detection for images (excluding those already in exact duplicates)
-                    publish("Analyzing images for visual similarity...");
-                    
-                    // Get all files already in exact duplicate groups
-                    Set<String> exactDuplicateFiles = new HashSet<>();
-                    for (List<Path> files : duplicates.values()) {
-                        for (Path file : files) {
-                            exactDuplicateFiles.add(file.toString());
-                        }
-                    }
-                    
-                    // Filter image files, excluding those already found as exact duplicates
-                    List<Path> imageFiles = allScannedFiles.stream()
-                        .filter(file -> isImageFile(file) && !exactDuplicateFiles.contains(file.toString()))
-                        .collect(Collectors.toList());
-                    
-                    if (!imageFiles.isEmpty()) {
-                        visualDuplicates = findVisualDuplicates(imageFiles);
-                        publish(String.format("Found %d visual duplicate groups", visualDuplicates.size()));
-                    }
-                    
+                    engine.scan(roots, message -> publish(message), resumeScan);
+                    Map<String, List<Path>> duplicates = engine.exactDuplicates();
+                    visualDuplicates = engine.visualDuplicates();
                     currentDuplicates = duplicates;
-                    boolean hasAnyDuplicates = !duplicates.isEmpty() || !visualDuplicates.isEmpty();
-                    deleteSelectedButton.setEnabled(hasAnyDuplicates);
-                    exportLogButton.setEnabled(hasAnyDuplicates);
                     return ""; // Results handled by displayResults()
                 }
                 
@@ -225,22 +265,53 @@ public class DuplicateFileFinder {
                     try {
                         get(); // This will be empty now, results are handled differently
                         displayResults();
+                        updateLog();
+                        // Only once the log holds this scan, so an export cannot write the previous one
+                        boolean hasAnyDuplicates = !currentDuplicates.isEmpty() || !visualDuplicates.isEmpty();
+                        deleteSelectedButton.setEnabled(hasAnyDuplicates);
+                        linkSelectedButton.setEnabled(!currentDuplicates.isEmpty());
+                        exportLogButton.setEnabled(hasAnyDuplicates);
+                        if (watchCheckBox.isSelected()) {
+                            startWatching(deleteSelectedButton, linkSelectedButton, exportLogButton);
+                        }
+                        if (hasMissingHashes()) {
+                            if ("background".equals(engine.settings().uniqueHashMode)) {
+                                computeMissingHashes(Thread.MIN_PRIORITY, computeHashesButton, null);
+                            } else {
+                                computeHashesButton.setEnabled(true);
+                            }
+                        }
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof InterruptedException) {
+                            displayMessage("Scan cancelled. Click 'Find Duplicates' to continue where it stopped.");
+                        } else {
+                            displayError("Error occurred during scan: " + ex.getCause().getMessage());
+                        }
                     } catch (Exception ex) {
                         displayError("Error occurred during scan: " + ex.getMessage());
                     }
+                    scanWorker = null;
+                    scanButton.setText("Find Duplicates");
                     scanButton.setEnabled(true);
+                    pauseButton.setVisible(false);
                 }
             };
-            worker.execute();
+            scanWorker.execute();
         });
         
-        deleteSelectedButton.addActionListener(e -> {
-            List<Path> selectedFiles = new ArrayList<>();
-            for (JCheckBox checkbox : fileCheckBoxes) {
-                if (checkbox.isSelected()) {
-                    selectedFiles.add(Path.of(checkbox.getActionCommand()));
-                }
+        pauseButton.addActionListener(e -> {
+            if (engine.control().isPaused()) {
+                engine.control().resume();
+                pauseButton.setText("Pause");
+            } else {
+                engine.control().pause();
+                pauseButton.setText("Resume");
+                displayMessage("Scan paused. Click 'Resume' to continue.");
             }
+        });
+        
+        deleteSelectedButton.addActionListener(e -> {
+            List<Path> selectedFiles = resultsModel.selectedFiles();
             
             if (selectedFiles.isEmpty()) {
                 JOptionPane.showMessageDialog(frame, "No files selected for deletion.");
@@ -258,7 +329,43 @@ public class DuplicateFileFinder {
                 return;
             }
             
-            deleteSelectedFiles(selectedFiles, frame, scanButton);
+            deleteSelectedFiles(selectedFiles, frame, deleteSelectedButton, linkSelectedButton, exportLogButton);
+        });
+        
+        linkSelectedButton.addActionListener(e -> {
+            Map<Path, Path> linkTargets = resultsModel.selectedLinkTargets();
+            
+            if (linkTargets.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, "No exact duplicates selected for linking.");
+                return;
+            }
+            
+            Object[] options = { "Hard Links", "Copy-on-Write Clones", "Cancel" };
+            int choice = JOptionPane.showOptionDialog(frame,
+                String.format("Replace %d selected files with links to an identical file in their group?\n\n"
+                    + "Each file is compared byte for byte first and every path stays valid.\n"
+                    + "Hard-linked files share their content: editing one changes all of them.",
+                    linkTargets.size()),
+                "Confirm Linking",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.QUESTION_MESSAGE,
+                null, options, options[0]);
+                
+            if (choice != 0 && choice != 1) {
+                return;
+            }
+            
+            FileLinker.Mode mode = choice == 0 ? FileLinker.Mode.HARD_LINK : FileLinker.Mode.CLONE;
+            linkSelectedFiles(linkTargets, mode, frame, deleteSelectedButton, linkSelectedButton, exportLogButton);
+        });
+        
+        watchCheckBox.addActionListener(e -> {
+            // A running scan starts watching when it finishes
+            if (!watchCheckBox.isSelected()) {
+                stopWatching();
+            } else if (scanWorker == null && !engine.roots().isEmpty()) {
+                startWatching(deleteSelectedButton, linkSelectedButton, exportLogButton);
+            }
         });
         
         toggleLogButton.addActionListener(e -> {
@@ -269,27 +376,29 @@ public class DuplicateFileFinder {
             frame.revalidate();
         });
         
-        exportLogButton.addActionListener(e -> exportLog(frame));
+        exportLogButton.addActionListener(e -> exportLog(frame, exportLogButton, computeHashesButton));
+        
+        computeHashesButton.addActionListener(e -> computeMissingHashes(Thread.NORM_PRIORITY, computeHashesButton, null));
+        
+        metricsButton.addActionListener(e -> showMetrics(frame));
         
         frame.add(mainPanel);
         frame.setVisible(true);
     }
     
     private void displayMessage(String message) {
-        resultPanel.removeAll();
-        fileCheckBoxes.clear();
+        clearResults();
         
         JLabel messageLabel = new JLabel("<html><h3>" + message + "</h3></html>");
         messageLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        resultPanel.add(messageLabel);
+        resultPanel.add(messageLabel, BorderLayout.NORTH);
         
         resultPanel.revalidate();
         resultPanel.repaint();
     }
     
     private void displayError(String error) {
-        resultPanel.removeAll();
-        fileCheckBoxes.clear();
+        clearResults();
         
         JLabel errorLabel = new JLabel("<html><h3 style='color: red;'>Error occurred during scan:</h3>" +
             "<p>" + error + "</p>" +
@@ -299,15 +408,20 @@ public class DuplicateFileFinder {
             "<li>Files are not locked by other programs</li>" +
             "</ul></html>");
         errorLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-        resultPanel.add(errorLabel);
+        resultPanel.add(errorLabel, BorderLayout.NORTH);
         
         resultPanel.revalidate();
         resultPanel.repaint();
     }
     
-    private void displayResults() {
+    private void clearResults() {
         resultPanel.removeAll();
-        fileCheckBoxes.clear();
+        resultsModel.clear();
+        resultsModel.fireTableDataChanged();
+    }
+    
+    private void displayResults() {
+        clearResults();
         
         boolean hasExactDuplicates = !currentDuplicates.isEmpty();
         boolean hasVisualDuplicates = !visualDuplicates.isEmpty();
@@ -315,231 +429,321 @@ public class DuplicateFileFinder {
         if (!hasExactDuplicates && !hasVisualDuplicates) {
             JLabel noResultsLabel = new JLabel("<html><h3>No duplicate files found.</h3></html>");
             noResultsLabel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-            resultPanel.add(noResultsLabel);
+            resultPanel.add(noResultsLabel, BorderLayout.NORTH);
         } else {
+            JPanel headerPanel = new JPanel();
+            headerPanel.setLayout(new BoxLayout(headerPanel, BoxLayout.Y_AXIS));
+            headerPanel.setBackground(Color.WHITE);
+            
             JLabel headerLabel = new JLabel("<html><h3>Duplicate Files Found - Check files to delete:</h3></html>");
             headerLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-            resultPanel.add(headerLabel);
+            headerLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+            headerPanel.add(headerLabel);
             
             JPanel selectAllPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 2));
+            selectAllPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
             JButton selectAllButton = new JButton("Select All");
             JButton deselectAllButton = new JButton("Deselect All");
             
             selectAllButton.addActionListener(e -> {
-                for (JCheckBox cb : fileCheckBoxes) {
-                    cb.setSelected(true);
-                }
+                resultsModel.setAllSelected(true);
+                logModel.setAllChecked(true);
             });
             
             deselectAllButton.addActionListener(e -> {
-                for (JCheckBox cb : fileCheckBoxes) {
-                    cb.setSelected(false);
-                }
+                resultsModel.setAllSelected(false);
+                logModel.setAllChecked(false);
             });
             
             selectAllPanel.add(selectAllButton);
             selectAllPanel.add(deselectAllButton);
-            resultPanel.add(selectAllPanel);
+            headerPanel.add(selectAllPanel);
             
             int groupNum = 1;
             
-            // Display exact duplicates (same file hash)
+            // Exact duplicates (same file hash)
             if (hasExactDuplicates) {
-                JLabel exactLabel = new JLabel("<html><h4 style='color: blue;'>Exact Duplicates (Same Content):</h4></html>");
-                exactLabel.setBorder(BorderFactory.createEmptyBorder(10, 5, 5, 5));
-                resultPanel.add(exactLabel);
-                
+                resultsModel.addSection("Exact Duplicates (Same Content):", false);
                 for (Map.Entry<String, List<Path>> entry : currentDuplicates.entrySet()) {
-                    groupNum = addDuplicateGroup(entry.getValue(), groupNum, "Exact", false);
+                    groupNum = addDuplicateGroup(entry.getKey(), entry.getValue(), groupNum, "Exact", false);
                 }
             }
             
-            // Display visual duplicates (similar images)
+            // Visual duplicates (similar images)
             if (hasVisualDuplicates) {
-                JLabel visualLabel = new JLabel("<html><h4 style='color: green;'>Visual Duplicates (Similar Images):</h4></html>");
-                visualLabel.setBorder(BorderFactory.createEmptyBorder(10, 5, 5, 5));
-                resultPanel.add(visualLabel);
-                
+                resultsModel.addSection("Visual Duplicates (Similar Images):", true);
                 for (Map.Entry<String, List<Path>> entry : visualDuplicates.entrySet()) {
-                    groupNum = addDuplicateGroup(entry.getValue(), groupNum, "Visual", true);
+                    groupNum = addDuplicateGroup(entry.getKey(), entry.getValue(), groupNum, "Visual", true);
                 }
             }
+            
+            resultsModel.fireTableDataChanged();
+            resultPanel.add(headerPanel, BorderLayout.NORTH);
+            resultPanel.add(resultScrollPane, BorderLayout.CENTER);
         }
         
         resultPanel.revalidate();
         resultPanel.repaint();
-        
-        // Update log after displaying results
-        updateLog();
     }
     
-    private int addDuplicateGroup(List<Path> files, int groupNum, String groupType, boolean isVisual) {
-        long fileSize = 0;
-        try {
-            fileSize = Files.size(files.get(0));
-        } catch (IOException e) {
-            fileSize = -1;
-        }
-        
-        JPanel groupPanel = new JPanel();
-        groupPanel.setLayout(new BoxLayout(groupPanel, BoxLayout.Y_AXIS));
-        String titleText = String.format("%s Group %d (%d files, %s)", groupType, groupNum, files.size(), formatFileSize(fileSize));
-        groupPanel.setBorder(BorderFactory.createCompoundBorder(
-            BorderFactory.createTitledBorder(titleText),
-            BorderFactory.createEmptyBorder(2, 5, 2, 5)));
-        
-        for (int i = 0; i < files.size(); i++) {
-            Path file = files.get(i);
-            JPanel filePanel = new JPanel(new BorderLayout());
-            filePanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 25));
-            filePanel.setPreferredSize(new Dimension(0, 25));
-            
-            JCheckBox checkbox = new JCheckBox();
-            checkbox.setActionCommand(file.toString());
-            if (i > 0) { // Pre-select duplicates (keep first file unchecked)
-                checkbox.setSelected(true);
-            }
-            checkbox.addChangeListener(e -> updateLog());
-            fileCheckBoxes.add(checkbox);
-            
-            JButton fileButton = new JButton(file.getFileName().toString());
-            fileButton.setToolTipText(file.toString());
-            fileButton.addActionListener(e -> openFileInExplorer(file.toString()));
-            fileButton.setBorderPainted(false);
-            fileButton.setContentAreaFilled(false);
-            fileButton.setForeground(isVisual ? new Color(0, 120, 0) : Color.BLUE);
-            fileButton.setHorizontalAlignment(SwingConstants.LEFT);
-            fileButton.setPreferredSize(new Dimension(200, 20));
-            
-            JLabel pathLabel = new JLabel(file.getParent().toString());
-            pathLabel.setFont(pathLabel.getFont().deriveFont(Font.PLAIN, 9f));
-            pathLabel.setForeground(Color.GRAY);
-            
-            JPanel leftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 2));
-            leftPanel.add(checkbox);
-            leftPanel.add(fileButton);
-            
-            filePanel.add(leftPanel, BorderLayout.WEST);
-            filePanel.add(pathLabel, BorderLayout.CENTER);
-            
-            groupPanel.add(filePanel);
-        }
-        
-        resultPanel.add(groupPanel);
+    private int addDuplicateGroup(String key, List<Path> files, int groupNum, String groupType, boolean isVisual) {
+        // The size comes from the scan, so building the results never touches the disk
+        String titleText = String.format("%s Group %d (%d files, %s)", groupType, groupNum, files.size(),
+            formatFileSize(engine.groupSize(key)));
+        resultsModel.addGroup(titleText, files, isVisual);
         return groupNum + 1;
     }
     
-    private void updateLog() {
-        StringBuilder logContent = new StringBuilder();
-        logContent.append("ALL FILES LOG\n");
-        logContent.append("=============\n");
-        logContent.append(String.format("Generated: %s\n", java.time.LocalDateTime.now().toString()));
-        logContent.append("\nFormat: [STATUS] FILENAME | HASH | DHASH | FULL_PATH\n");
-        logContent.append("STATUS: [CHECKED] = Selected for deletion, [UNCHECKED] = Not selected, [UNIQUE] = No duplicates\n");
-        logContent.append("HASH: SHA-256 file content hash\n");
-        logContent.append("DHASH: Image perceptual hash (only for images)\n\n");
-        
-        List<String> allFiles = new ArrayList<>();
-        int checkedCount = 0;
-        int uncheckedCount = 0;
-        int uniqueCount = 0;
-        
-        // Get all checked file paths for quick lookup
-        Set<String> checkedFilePaths = new HashSet<>();
-        for (JCheckBox checkbox : fileCheckBoxes) {
-            if (checkbox.isSelected()) {
-                checkedFilePaths.add(checkbox.getActionCommand());
-            }
+    private void toggleFile(int row) {
+        if (!resultsModel.isTitle(row)) {
+            resultsModel.toggle(row);
+            logModel.setChecked(resultsModel.file(row), resultsModel.isSelected(row));
         }
-        
-        // Get all duplicate file paths for quick lookup (both exact and visual)
-        Set<String> duplicateFilePaths = new HashSet<>();
+    }
+    
+    private void updateLog() {
+        logModel.reset(engine.files(), engine.settings().hashAlgorithm.displayName, duplicateFiles(),
+            resultsModel.selectedFiles());
+        logList.setPrototypeCellValue(logModel.prototypeLine());
+        logList.ensureIndexIsVisible(0);
+    }
+    
+    private Set<Path> duplicateFiles() {
+        // All duplicate file paths for quick lookup (both exact and visual)
+        Set<Path> duplicateFiles = new HashSet<>();
         for (List<Path> files : currentDuplicates.values()) {
-            for (Path file : files) {
-                duplicateFilePaths.add(file.toString());
-            }
+            duplicateFiles.addAll(files);
         }
         for (List<Path> files : visualDuplicates.values()) {
-            for (Path file : files) {
-                duplicateFilePaths.add(file.toString());
-            }
+            duplicateFiles.addAll(files);
         }
+        return duplicateFiles;
+    }
+    
+    private void exportLog(JFrame parent, JButton exportLogButton, JButton computeHashesButton) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export Log File");
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Text report (.txt)", "txt"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("CSV (.csv)", "csv"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("JSON (.json)", "json"));
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Gzip-compressed (.gz)", "gz"));
+        String timestamp = java.time.LocalDateTime.now().toString().replaceAll(":", "-").substring(0, 19);
+        fileChooser.setSelectedFile(new File("duplicate_files_log_" + timestamp + ".txt"));
         
-        // Process all scanned files
-        for (Path file : allScannedFiles) {
-            String filePath = file.toString();
-            String hash = fileHashes.get(filePath);
-            String dHash = imageDHashes.get(filePath);
-            String fileName = file.getFileName().toString();
-            String status;
-            
-            if (checkedFilePaths.contains(filePath)) {
-                status = "[CHECKED]  ";
-                checkedCount++;
-            } else if (duplicateFilePaths.contains(filePath)) {
-                status = "[UNCHECKED]";
-                uncheckedCount++;
+        if (fileChooser.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION) {
+            File file = fileChooser.getSelectedFile();
+            if (!file.getName().contains(".") && fileChooser.getFileFilter() instanceof FileNameExtensionFilter) {
+                String extension = ((FileNameExtensionFilter) fileChooser.getFileFilter()).getExtensions()[0];
+                file = new File(file.getPath() + "." + extension);
+            }
+            File target = file;
+            exportLogButton.setEnabled(false);
+            if (hasMissingHashes()) {
+                // The exported report always carries full hashes, so resolve the on-demand ones first
+                computeMissingHashes(Thread.NORM_PRIORITY, computeHashesButton,
+                    () -> writeLog(parent, target, exportLogButton));
             } else {
-                status = "[UNIQUE]   ";
-                uniqueCount++;
+                writeLog(parent, target, exportLogButton);
             }
-            
-            String fileInfo = String.format("%s %s | %s | %s | %s", 
-                status, fileName, hash, 
-                (dHash != null ? dHash : "N/A"), filePath);
-            allFiles.add(fileInfo);
         }
-        
-        if (allFiles.isEmpty()) {
-            logContent.append("No files scanned yet.\n");
-        } else {
-            logContent.append(String.format("Total files: %d (Checked: %d, Unchecked: %d, Unique: %d)\n\n", 
-                allFiles.size(), checkedCount, uncheckedCount, uniqueCount));
+    }
+    
+    private void writeLog(JFrame parent, File file, JButton exportLogButton) {
+        if (scanWorker != null) {
+            // A scan started while on-demand hashes were computed; its results are not ready to export
+            return;
+        }
+        // Snapshot the checkbox states on the EDT; the file itself is written in the background
+        FileLogModel.Snapshot log = logModel.snapshot();
+        SwingWorker<Void, String> exportWorker = new SwingWorker<Void, String>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                LogExporter.export(log, file.toPath(), message -> publish(message));
+                return null;
+            }
             
-            // Sort files alphabetically by name for easier reading
-            allFiles.sort((a, b) -> {
-                String nameA = a.substring(a.indexOf(']') + 2).split(" \\| ")[0];
-                String nameB = b.substring(b.indexOf(']') + 2).split(" \\| ")[0];
-                return nameA.compareToIgnoreCase(nameB);
-            });
+            @Override
+            protected void process(List<String> chunks) {
+                if (!chunks.isEmpty()) {
+                    exportLogButton.setText(chunks.get(chunks.size() - 1));
+                }
+            }
             
-            int counter = 1;
-            for (String fileInfo : allFiles) {
-                logContent.append(String.format("%4d. %s\n", counter++, fileInfo));
+            @Override
+            protected void done() {
+                exportLogButton.setText("Export Log");
+                // A scan started meanwhile enables it again once it has results
+                exportLogButton.setEnabled(scanWorker == null);
+                try {
+                    get();
+                    JOptionPane.showMessageDialog(parent, 
+                        "Log exported successfully to: " + file.getAbsolutePath(),
+                        "Export Complete", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(parent, 
+                        "Error exporting log: " + cause.getMessage(),
+                        "Export Error", JOptionPane.ERROR_MESSAGE);
+                }
             }
+        };
+        exportWorker.execute();
+    }
+    
+    /** Rates and ETA of the running phase, or the slowest phase once the scan is over. */
+    private String metricsStatus() {
+        ScanMetrics metrics = engine.metrics();
+        ScanMetrics.Phase active = metrics.activePhase();
+        if (active != null) {
+            ScanMetrics.PhaseStats stats = metrics.stats(active);
+            StringBuilder status = new StringBuilder(active.displayName)
+                .append(engine.control().isPaused() ? " (paused): " : ": ");
+            status.append(stats.expectedFiles > 0
+                ? String.format("%,d of %,d files", stats.files, stats.expectedFiles)
+                : String.format("%,d files", stats.files));
+            if (stats.bytes > 0) {
+                status.append(String.format(" \u00b7 %.1f MB/s", stats.megabytesPerSecond()));
+            }
+            status.append(String.format(" \u00b7 %,.0f files/s", stats.filesPerSecond()));
+            long eta = stats.etaSeconds();
+            if (eta >= 0) {
+                status.append(" \u00b7 ETA ").append(formatDuration(eta));
+            }
+            return status.toString();
+        }
+        ScanMetrics.PhaseStats slowest = null;
+        for (ScanMetrics.PhaseStats stats : metrics.snapshot()) {
+            if (slowest == null || stats.wallNanos > slowest.wallNanos) {
+                slowest = stats;
+            }
+        }
+        if (slowest == null || slowest.isEmpty()) {
+            return " ";
+        }
+        // Busy time far above CPU time points at the disk, CPU time close to it at the processor
+        return String.format("Slowest phase: %s, %s (busy %.1f s, CPU %.1f s)", slowest.phase.displayName,
+            formatDuration(slowest.wallNanos / 1_000_000_000L), slowest.busyNanos / 1e9, slowest.cpuNanos / 1e9);
+    }
+    
+    private static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
         }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+    
+    private void showMetrics(JFrame parent) {
+        String[] columns = { "Phase", "Files", "Cached", "Data", "Errors", "Wall (s)", "Busy (s)", "CPU (s)", "Files/s", "MB/s" };
+        DefaultTableModel model = new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        Runnable refresh = () -> {
+            model.setRowCount(0);
+            for (ScanMetrics.PhaseStats stats : engine.metrics().snapshot()) {
+                model.addRow(new Object[] {
+                    stats.phase.displayName + (stats.running ? " (running)" : ""),
+                    String.format("%,d", stats.files),
+                    stats.cachedFiles > 0 ? String.format("%,d", stats.cachedFiles) : "",
+                    stats.bytes > 0 ? ScanEngine.formatFileSize(stats.bytes) : "",
+                    stats.errors,
+                    String.format("%.1f", stats.wallNanos / 1e9),
+                    String.format("%.1f", stats.busyNanos / 1e9),
+                    String.format("%.1f", stats.cpuNanos / 1e9),
+                    String.format("%,.0f", stats.filesPerSecond()),
+                    stats.bytes > 0 ? String.format("%.1f", stats.megabytesPerSecond()) : ""
+                });
+            }
+        };
+        refresh.run();
+        
+        JDialog dialog = new JDialog(parent, "Scan Metrics", false);
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        JButton refreshButton = new JButton("Refresh");
+        JButton saveButton = new JButton("Save as JSON...");
+        JButton closeButton = new JButton("Close");
+        refreshButton.addActionListener(e -> refresh.run());
+        closeButton.addActionListener(e -> dialog.dispose());
+        saveButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Save Scan Metrics");
+            fileChooser.setFileFilter(new FileNameExtensionFilter("JSON (.json)", "json"));
+            String timestamp = java.time.LocalDateTime.now().toString().replaceAll(":", "-").substring(0, 19);
+            fileChooser.setSelectedFile(new File("scan_metrics_" + timestamp + ".json"));
+            if (fileChooser.showSaveDialog(dialog) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    engine.metrics().writeJson(fileChooser.getSelectedFile().toPath());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(dialog, "Error saving metrics: " + ex.getMessage(),
+                        "Save Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
         
-        logArea.setText(logContent.toString());
-        logArea.setCaretPosition(0);
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(refreshButton);
+        buttons.add(saveButton);
+        buttons.add(closeButton);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.add(buttons, BorderLayout.SOUTH);
+        dialog.setSize(760, 260);
+        dialog.setLocationRelativeTo(parent);
+        dialog.setVisible(true);
     }
     
-    private void exportLog(JFrame parent) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Export Log File");
-        String timestamp = java.time.LocalDateTime.now().toString().replaceAll(":", "-").substring(0, 19);
-        fileChooser.setSelectedFile(new File("duplicate_files_log_" + timestamp + ".txt"));
+    private boolean hasMissingHashes() {
+        return engine.hasMissingHashes();
+    }
+    
+    private void computeMissingHashes(int priority, JButton computeHashesButton, Runnable onComplete) {
+        if (backgroundHashWorker != null) {
+            backgroundHashWorker.cancel(true);
+        }
         
-        if (fileChooser.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try (java.io.FileWriter writer = new java.io.FileWriter(file)) {
-                writer.write(logArea.getText());
-                JOptionPane.showMessageDialog(parent, 
-                    "Log exported successfully to: " + file.getAbsolutePath(),
-                    "Export Complete", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(parent, 
-                    "Error exporting log: " + ex.getMessage(),
-                    "Export Error", JOptionPane.ERROR_MESSAGE);
+        computeHashesButton.setEnabled(false);
+        backgroundHashWorker = new SwingWorker<Void, String>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                engine.computeMissingHashes(priority, message -> publish(message));
+                return null;
             }
-        }
+            
+            @Override
+            protected void process(List<String> chunks) {
+                if (!chunks.isEmpty()) {
+                    computeHashesButton.setText(chunks.get(chunks.size() - 1));
+                }
+            }
+            
+            @Override
+            protected void done() {
+                computeHashesButton.setText("Compute Missing Hashes");
+                if (isCancelled()) {
+                    return;
+                }
+                backgroundHashWorker = null;
+                logModel.refresh();
+                computeHashesButton.setEnabled(hasMissingHashes());
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
+        };
+        backgroundHashWorker.execute();
     }
     
-    private void deleteSelectedFiles(List<Path> filesToDelete, JFrame parent, JButton scanButton) {
+    private void deleteSelectedFiles(List<Path> filesToDelete, JFrame parent, JButton deleteSelectedButton,
+            JButton linkSelectedButton, JButton exportLogButton) {
         SwingWorker<Void, String> deleteWorker = new SwingWorker<Void, String>() {
             @Override
             protected Void doInBackground() throws Exception {
                 int successCount = 0;
                 StringBuilder errors = new StringBuilder();
+                // Files that no longer exist, whether deleted now or already gone
+                List<Path> removedFiles = new ArrayList<>();
                 
                 for (Path filePath : filesToDelete) {
                     try {
@@ -547,12 +751,14 @@ public class DuplicateFileFinder {
                         if (file.exists()) {
                             if (file.delete()) {
                                 successCount++;
+                                removedFiles.add(filePath);
                                 publish("Deleted: " + file.getName());
                             } else {
                                 errors.append("Failed to delete: ").append(filePath).append("\n");
                             }
                         } else {
                             errors.append("File not found: ").append(filePath).append("\n");
+                            removedFiles.add(filePath);
                         }
                     } catch (Exception ex) {
                         errors.append("Error deleting ").append(filePath).append(": ").append(ex.getMessage()).append("\n");
@@ -569,9 +775,9 @@ public class DuplicateFileFinder {
                 final boolean hasErrors = errors.length() > 0;
                 
                 SwingUtilities.invokeLater(() -> {
+                    removeDeletedFiles(removedFiles, deleteSelectedButton, linkSelectedButton, exportLogButton);
                     JOptionPane.showMessageDialog(parent, finalMessage, "Deletion Results", 
                         hasErrors ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
-                    scanButton.doClick(); // Refresh the results
                 });
                 
                 return null;
@@ -588,6 +794,145 @@ public class DuplicateFileFinder {
         deleteWorker.execute();
     }
     
+    private void removeDeletedFiles(List<Path> removedFiles, JButton deleteSelectedButton, JButton linkSelectedButton,
+            JButton exportLogButton) {
+        // Update the results in place instead of rescanning; "Find Duplicates" still does a full scan
+        engine.removeFiles(removedFiles);
+        showUpdatedGroups(deleteSelectedButton, linkSelectedButton, exportLogButton, false);
+    }
+    
+    private void linkSelectedFiles(Map<Path, Path> linkTargets, FileLinker.Mode mode, JFrame parent,
+            JButton deleteSelectedButton, JButton linkSelectedButton, JButton exportLogButton) {
+        deleteSelectedButton.setEnabled(false);
+        linkSelectedButton.setEnabled(false);
+        SwingWorker<FileLinker.Result, String> linkWorker = new SwingWorker<FileLinker.Result, String>() {
+            @Override
+            protected FileLinker.Result doInBackground() throws Exception {
+                return engine.linkDuplicates(linkTargets, mode, message -> publish(message));
+            }
+            
+            @Override
+            protected void process(List<String> chunks) {
+                if (!chunks.isEmpty()) {
+                    displayMessage(chunks.get(chunks.size() - 1));
+                }
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    FileLinker.Result result = get();
+                    // Linked files no longer take space of their own, so they leave their groups
+                    showUpdatedGroups(deleteSelectedButton, linkSelectedButton, exportLogButton, false);
+                    
+                    StringBuilder message = new StringBuilder(String.format(
+                        "Replaced %d files with %ss, reclaiming %s.", result.linked.get(), mode.displayName,
+                        formatFileSize(result.bytesReclaimed.get())));
+                    if (result.skipped.get() > 0) {
+                        message.append(String.format("\n%d files were already linked.", result.skipped.get()));
+                    }
+                    List<String> errors = new ArrayList<>(result.errors);
+                    if (!errors.isEmpty()) {
+                        message.append("\n\nErrors:\n");
+                        for (String error : errors.subList(0, Math.min(errors.size(), MAX_REPORTED_ERRORS))) {
+                            message.append(error).append("\n");
+                        }
+                        if (errors.size() > MAX_REPORTED_ERRORS) {
+                            message.append(String.format("... and %d more", errors.size() - MAX_REPORTED_ERRORS));
+                        }
+                    }
+                    JOptionPane.showMessageDialog(parent, message.toString(), "Linking Results",
+                        errors.isEmpty() ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+                } catch (Exception ex) {
+                    displayError("Error occurred while linking files: " + ex.getMessage());
+                    boolean hasAnyDuplicates = !currentDuplicates.isEmpty() || !visualDuplicates.isEmpty();
+                    deleteSelectedButton.setEnabled(hasAnyDuplicates);
+                    linkSelectedButton.setEnabled(!currentDuplicates.isEmpty());
+                }
+            }
+        };
+        
+        linkWorker.execute();
+    }
+    
+    private void showUpdatedGroups(JButton deleteSelectedButton, JButton linkSelectedButton, JButton exportLogButton,
+            boolean filesAdded) {
+        currentDuplicates = engine.exactDuplicates();
+        visualDuplicates = engine.visualDuplicates();
+        displayResults();
+        if (filesAdded) {
+            updateLog();
+        } else {
+            logModel.update(duplicateFiles(), resultsModel.selectedFiles());
+        }
+        
+        boolean hasAnyDuplicates = !currentDuplicates.isEmpty() || !visualDuplicates.isEmpty();
+        deleteSelectedButton.setEnabled(hasAnyDuplicates);
+        linkSelectedButton.setEnabled(!currentDuplicates.isEmpty());
+        exportLogButton.setEnabled(hasAnyDuplicates);
+    }
+    
+    private void chooseFolders(JFrame parent, JTextField folderField, boolean add) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setMultiSelectionEnabled(true);
+        if (chooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File[] selected = chooser.getSelectedFiles();
+        if (selected.length == 0) {
+            selected = new File[] { chooser.getSelectedFile() };
+        }
+        StringBuilder folders = new StringBuilder(add ? folderField.getText().trim() : "");
+        for (File folder : selected) {
+            if (folders.length() > 0) {
+                folders.append(File.pathSeparator);
+            }
+            folders.append(folder.getAbsolutePath());
+        }
+        folderField.setText(folders.toString());
+    }
+    
+    private void startWatching(JButton deleteSelectedButton, JButton linkSelectedButton, JButton exportLogButton) {
+        stopWatching();
+        try {
+            DirectoryWatcher newWatcher = new DirectoryWatcher(engine.roots(), engine.settings().watchQuietMillis,
+                engine.settings().watchMaxDelayMillis, changes -> {
+                    if (engine.applyChanges(changes, message -> { })) {
+                        SwingUtilities.invokeLater(() -> {
+                            // Skip updates that arrive while a new scan is replacing the results
+                            if (watcher != null) {
+                                showUpdatedGroups(deleteSelectedButton, linkSelectedButton, exportLogButton, true);
+                            }
+                        });
+                    }
+                });
+            Thread watchThread = new Thread(() -> {
+                try {
+                    newWatcher.watch();
+                } catch (InterruptedException e) {
+                    // Stopped
+                }
+            }, "dff-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+            watcher = newWatcher;
+        } catch (IOException e) {
+            displayError("Could not watch for changes: " + e.getMessage());
+        }
+    }
+    
+    private void stopWatching() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+    }
+    
     private void openFileInExplorer(String filePath) {
         try {
             File file = new File(filePath);
@@ -658,208 +1003,11 @@ public class DuplicateFileFinder {
         return result.toString();
     }
     
-    private Map<Long, List<Path>> groupFilesBySize(Path rootPath) throws IOException {
-        Map<Long, List<Path>> sizeGroups = new HashMap<>();
-        
-        if (!Files.exists(rootPath)) {
-            throw new IOException("Path does not exist: " + rootPath);
-        }
-        
-        if (!Files.isDirectory(rootPath)) {
-            throw new IOException("Path is not a directory: " + rootPath);
-        }
-        
-        if (!Files.isReadable(rootPath)) {
-            throw new IOException("Cannot read directory: " + rootPath);
-        }
-        
-        try (Stream<Path> paths = Files.walk(rootPath)) {
-            paths.filter(path -> {
-                try {
-                    return Files.isRegularFile(path) && Files.isReadable(path);
-                } catch (Exception e) {
-                    System.err.println("Error checking file: " + path + " - " + e.getMessage());
-                    return false;
-                }
-            })
-            .forEach(path -> {
-                try {
-                    long size = Files.size(path);
-                    sizeGroups.computeIfAbsent(size, k -> new ArrayList<>()).add(path);
-                } catch (IOException e) {
-                    System.err.println("Error reading file size: " + path + " - " + e.getMessage());
-                }
-            });
-        } catch (IOException e) {
-            throw new IOException("Error walking directory tree: " + e.getMessage(), e);
-        }
-        
-        return sizeGroups;
-    }
-    
-    private Map<String, List<Path>> groupFilesByHash(List<Path> files) {
-        Map<String, List<Path>> hashGroups = new HashMap<>();
-        
-        for (Path file : files) {
-            try {
-                String hash = calculateFileHash(file);
-                hashGroups.computeIfAbsent(hash, k -> new ArrayList<>()).add(file);
-            } catch (Exception e) {
-                System.err.println("Error calculating hash for: " + file + " - " + e.getMessage());
-            }
-        }
-        
-        return hashGroups;
-    }
-    
-    private String calculateFileHash(Path filePath) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        
-        try (InputStream inputStream = Files.newInputStream(filePath);
-             BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream)) {
-            
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            
-            while ((bytesRead = bufferedInputStream.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
-        }
-        
-        byte[] hashBytes = digest.digest();
-        StringBuilder hexString = new StringBuilder();
-        
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        
-        return hexString.toString();
-    }
-    
-    private boolean isImageFile(Path file) {
-        String fileName = file.getFileName().toString().toLowerCase();
-        return IMAGE_EXTENSIONS.stream().anyMatch(fileName::endsWith);
-    }
-    
-    private String calculateDHash(Path imagePath) throws Exception {
-        try {
-            BufferedImage image = ImageIO.read(imagePath.toFile());
-            if (image == null) {
-                throw new Exception("Could not read image: " + imagePath);
-            }
-            
-            // Resize to 9x8 for dHash (we need 9 columns to compare 8 differences)
-            BufferedImage resized = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
-            Graphics2D g = resized.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.drawImage(image, 0, 0, 9, 8, null);
-            g.dispose();
-            
-            // Calculate dHash by comparing adjacent pixels
-            StringBuilder hash = new StringBuilder();
-            for (int y = 0; y < 8; y++) {
-                for (int x = 0; x < 8; x++) {
-                    int leftPixel = resized.getRGB(x, y) & 0xFF;
-                    int rightPixel = resized.getRGB(x + 1, y) & 0xFF;
-                    hash.append(leftPixel < rightPixel ? '1' : '0');
-                }
-            }
-            
-            // Convert binary string to hexadecimal
-            StringBuilder hexHash = new StringBuilder();
-            for (int i = 0; i < hash.length(); i += 4) {
-                String fourBits = hash.substring(i, Math.min(i + 4, hash.length()));
-                while (fourBits.length() < 4) fourBits += "0"; // Pad if needed
-                int value = Integer.parseInt(fourBits, 2);
-                hexHash.append(Integer.toHexString(value));
-            }
-            
-            return hexHash.toString();
-        } catch (Exception e) {
-            throw new Exception("Error calculating dHash for " + imagePath + ": " + e.getMessage());
-        }
-    }
-    
-    private int calculateHammingDistance(String hash1, String hash2) {
-        if (hash1.length() != hash2.length()) {
-            return Integer.MAX_VALUE;
-        }
-        
-        int distance = 0;
-        for (int i = 0; i < hash1.length(); i++) {
-            if (hash1.charAt(i) != hash2.charAt(i)) {
-                distance++;
-            }
-        }
-        return distance;
-    }
-    
-    private Map<String, List<Path>> findVisualDuplicates(List<Path> imageFiles) {
-        Map<String, List<Path>> visualDups = new HashMap<>();
-        
-        // Calculate dHash for all images
-        for (Path imageFile : imageFiles) {
-            try {
-                String dHash = calculateDHash(imageFile);
-                imageDHashes.put(imageFile.toString(), dHash);
-            } catch (Exception e) {
-                System.err.println("Error calculating dHash for: " + imageFile + " - " + e.getMessage());
-            }
-        }
-        
-        // Find similar images (Hamming distance <= 5 is considered similar)
-        List<Path> processedImages = new ArrayList<>();
-        for (Path imageFile : imageFiles) {
-            String currentHash = imageDHashes.get(imageFile.toString());
-            if (currentHash == null) continue;
-            
-            boolean foundGroup = false;
-            for (Map.Entry<String, List<Path>> entry : visualDups.entrySet()) {
-                String groupHash = entry.getKey();
-                if (calculateHammingDistance(currentHash, groupHash) <= 5) {
-                    entry.getValue().add(imageFile);
-                    foundGroup = true;
-                    break;
-                }
-            }
-            
-            if (!foundGroup && !processedImages.contains(imageFile)) {
-                List<Path> similarImages = new ArrayList<>();
-                similarImages.add(imageFile);
-                
-                // Find all similar images to this one
-                for (Path otherImage : imageFiles) {
-                    if (!otherImage.equals(imageFile) && !processedImages.contains(otherImage)) {
-                        String otherHash = imageDHashes.get(otherImage.toString());
-                        if (otherHash != null && calculateHammingDistance(currentHash, otherHash) <= 5) {
-                            similarImages.add(otherImage);
-                        }
-                    }
-                }
-                
-                if (similarImages.size() > 1) {
-                    visualDups.put(currentHash, similarImages);
-                }
-                processedImages.addAll(similarImages);
-            }
-        }
-        
-        return visualDups;
-    }
-    
     private String formatFileSize(long size) {
         return formatFileSizeStatic(size);
     }
     
     private static String formatFileSizeStatic(long size) {
-        if (size < 0) return "Unknown size";
-        if (size < 1024) return size + " bytes";
-        if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
-        if (size < 1024 * 1024 * 1024) return String.format("%.1f MB", size / (1024.0 * 1024.0));
-        return String.format("%.1f GB", size / (1024.0 * 1024.0 * 1024.0));
+        return ScanEngine.formatFileSize(size);
     }
 }
\ No newline at end of file
@@ -0,0 +1,458 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless entry point: {@code java DuplicateFileFinder [options] DIR...}. Runs the same {@link ScanEngine}
+ * as the GUI and streams each duplicate group to the output as JSON Lines or CSV the moment it is confirmed,
+ * so the tool can run from cron or on servers without a display. Progress goes to stderr. With {@code --watch}
+ * it keeps running after the scan and reports groups again whenever file changes affect them. A scan stopped
+ * with Ctrl+C saves its checkpoint, and the next run over the same directories resumes it.
+ */
+final class DuplicateFileFinderCli {
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: java DuplicateFileFinder [options] DIR...",
+        "",
+        "Options:",
+        "  --format jsonl|csv       Output format (default: jsonl)",
+        "  --output FILE            Write results to FILE instead of stdout",
+        "  --threads N              Hashing threads (default: dff.hashThreads)",
+        "  --walk-threads N         Directory listing threads (default: dff.walkThreads)",
+        "  --io-per-device N        Concurrent reads per storage device (default: dff.ioPerDevice)",
+        "  --io-per-spinning-disk N Concurrent reads per rotational disk (default: dff.ioPerSpinningDisk)",
+        "  --similarity N           Maximum differing dHash bits for similar images (default: dff.similarityThreshold)",
+        "  --no-images              Skip visual similarity detection",
+        "  --hash fast|paranoid     Content hash used for grouping (default: dff.hashAlgorithm)",
+        "  --confirm sha256|bytes|none",
+        "                           How fast-hash matches are verified (default: dff.confirm)",
+        "  --sample-stages LIST     Comma-separated head/tail sample sizes (default: dff.sampleStages)",
+        "  --partial                Also find large files that share much of their content, and estimate",
+        "                           what block-level deduplication would reclaim",
+        "  --watch                  Keep running after the scan, reporting groups that change or disappear",
+        "                           as files are created, modified or deleted (stop with Ctrl+C)",
+        "  --metrics FILE           Write per-phase counters and timings to FILE as JSON after the scan",
+        "                           (and after each live update in watch mode)",
+        "  --restart                Ignore the checkpoint of an interrupted scan and start over; a resumed",
+        "                           scan takes finished hashes from the hash cache, so with",
+        "                           -Ddff.hashCache=off it only skips listing directories again",
+        "  --quiet                  Do not print progress or the phase summary to stderr",
+        "  --help                   Show this message",
+        "",
+        "Exit status: 0 when the scan completed, 1 when it failed, 2 on invalid arguments.",
+        "In watch mode, changed groups are written again under a new group number; \"removed\"",
+        "records name the hash or dHash of groups that no longer exist.");
+
+    // How long Ctrl+C waits for a cancelled scan to save its checkpoint before the process exits
+    private static final int SHUTDOWN_WAIT_SECONDS = 10;
+
+    private DuplicateFileFinderCli() {
+    }
+
+    /** Runs a scan from command-line arguments and returns the process exit status. */
+    static int run(String[] args) {
+        ScanSettings settings = ScanSettings.fromSystemProperties();
+        List<Path> roots = new ArrayList<>();
+        String format = "jsonl";
+        String output = null;
+        String metricsFile = null;
+        boolean quiet = false;
+        boolean watch = false;
+        boolean resume = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--format":
+                        format = value(args, ++i, arg).toLowerCase();
+                        if (!format.equals("jsonl") && !format.equals("csv")) {
+                            throw new IllegalArgumentException("Unknown format: " + format);
+                        }
+                        break;
+                    case "--output":
+                        output = value(args, ++i, arg);
+                        break;
+                    case "--threads":
+                        settings.hashThreads = positive(args, ++i, arg);
+                        break;
+                    case "--walk-threads":
+                        settings.walkThreads = positive(args, ++i, arg);
+                        break;
+                    case "--io-per-device":
+                        settings.ioPerDevice = positive(args, ++i, arg);
+                        break;
+                    case "--io-per-spinning-disk":
+                        settings.ioPerSpinningDisk = positive(args, ++i, arg);
+                        break;
+                    case "--similarity":
+                        settings.similarityThreshold = integer(args, ++i, arg);
+                        break;
+                    case "--no-images":
+                        settings.findVisualDuplicates = false;
+                        break;
+                    case "--hash":
+                        String name = value(args, ++i, arg);
+                        settings.hashAlgorithm = HashAlgorithm.forName(name);
+                        if (settings.hashAlgorithm == null) {
+                            throw new IllegalArgumentException("Unknown hash algorithm: " + name);
+                        }
+                        break;
+                    case "--confirm":
+                        settings.confirmMode = value(args, ++i, arg).toLowerCase();
+                        if (!settings.confirmMode.matches("sha256|bytes|none")) {
+                            throw new IllegalArgumentException("Unknown confirmation mode: " + settings.confirmMode);
+                        }
+                        break;
+                    case "--sample-stages":
+                        String stages = value(args, ++i, arg);
+                        try {
+                            settings.sampleStages = ScanSettings.parseSampleStages(stages);
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid sample stages: " + stages);
+                        }
+                        break;
+                    case "--metrics":
+                        metricsFile = value(args, ++i, arg);
+                        break;
+                    case "--partial":
+                        settings.findPartialDuplicates = true;
+                        break;
+                    case "--watch":
+                        watch = true;
+                        break;
+                    case "--restart":
+                        resume = false;
+                        break;
+                    case "--quiet":
+                        quiet = true;
+                        break;
+                    case "--help":
+                    case "-h":
+                        System.out.println(USAGE);
+                        return 0;
+                    default:
+                        if (arg.startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        roots.add(Paths.get(arg));
+                }
+            }
+            if (roots.isEmpty()) {
+                throw new IllegalArgumentException("No directory to scan");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        long start = System.nanoTime();
+        ScanEngine engine = new ScanEngine(settings);
+        engine.metrics().registerMBean();
+        Path metricsPath = metricsFile == null ? null : Paths.get(metricsFile);
+        try (Writer writer = output == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            ResultWriter results = format.equals("csv") ? new CsvWriter(writer) : new JsonLinesWriter(writer);
+            PrintStream progress = quiet ? null : System.err;
+            ScanEngine.Listener listener = new ScanEngine.Listener() {
+                @Override
+                public void progress(String message) {
+                    if (progress != null) {
+                        progress.println(message);
+                    }
+                }
+
+                @Override
+                public void exactDuplicates(String hash, long size, List<Path> files) {
+                    results.exactGroup(hash, size, files);
+                }
+
+                @Override
+                public void visualDuplicates(String dHash, List<Path> files) {
+                    results.visualGroup(dHash, files);
+                }
+
+                @Override
+                public void groupRemoved(String key) {
+                    results.removedGroup(key);
+                }
+
+                @Override
+                public void partialDuplicates(ScanEngine.PartialDuplicate pair) {
+                    results.partialPair(pair);
+                }
+            };
+            scan(engine, roots, listener, resume);
+            results.summary(engine, (System.nanoTime() - start) / 1_000_000);
+            writer.flush();
+            for (ScanMetrics.PhaseStats phase : engine.metrics().snapshot()) {
+                if (!phase.isEmpty()) {
+                    listener.progress(phase.summary());
+                }
+            }
+            writeMetrics(engine, metricsPath);
+            if (watch && !results.failed()) {
+                try (DirectoryWatcher watcher = new DirectoryWatcher(engine.roots(), settings.watchQuietMillis,
+                        settings.watchMaxDelayMillis, changes -> {
+                            if (engine.applyChanges(changes, listener)) {
+                                writeMetrics(engine, metricsPath);
+                            }
+                        })) {
+                    listener.progress("Watching for changes; press Ctrl+C to stop");
+                    watcher.watch();
+                }
+            }
+            return results.failed() ? 1 : 0;
+        } catch (IOException e) {
+            System.err.println("Error during scan: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Scan interrupted; run the same command again to resume it");
+            return 1;
+        }
+    }
+
+    /**
+     * Runs the scan with a shutdown hook that cancels it on Ctrl+C and waits briefly for it to stop, so the
+     * checkpoint and the hash cache are saved before the process exits.
+     */
+    private static void scan(ScanEngine engine, List<Path> roots, ScanEngine.Listener listener, boolean resume)
+            throws IOException, InterruptedException {
+        CountDownLatch stopped = new CountDownLatch(1);
+        Thread cancelOnExit = new Thread(() -> {
+            engine.control().cancel();
+            try {
+                stopped.await(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "dff-shutdown");
+        Runtime.getRuntime().addShutdownHook(cancelOnExit);
+        try {
+            engine.scan(roots, listener, resume);
+        } finally {
+            stopped.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(cancelOnExit);
+            } catch (IllegalStateException e) {
+                // Already shutting down; the hook is running and has just been released
+            }
+        }
+    }
+
+    private static void writeMetrics(ScanEngine engine, Path target) {
+        if (target == null) {
+            return;
+        }
+        try {
+            engine.metrics().writeJson(target);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics: " + target + " - " + e.getMessage());
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int integer(String[] args, int index, String option) {
+        String value = value(args, index, option);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a number for " + option + ": " + value);
+        }
+    }
+
+    private static int positive(String[] args, int index, String option) {
+        int value = integer(args, index, option);
+        if (value < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * Formats groups as they arrive. Groups are reported from worker threads, so each one is written and
+     * flushed under the writer's lock; a failed write is remembered and turns the exit status into 1.
+     */
+    private abstract static class ResultWriter {
+        final Writer out;
+        private int groupNumber;
+        int exactGroups;
+        int exactFiles;
+        long reclaimableBytes;
+        private IOException failure;
+
+        ResultWriter(Writer out) {
+            this.out = out;
+        }
+
+        final synchronized void exactGroup(String hash, long size, List<Path> files) {
+            exactGroups++;
+            exactFiles += files.size();
+            reclaimableBytes += (files.size() - 1) * size;
+            write(() -> writeExact(++groupNumber, hash, size, files));
+        }
+
+        final synchronized void visualGroup(String dHash, List<Path> files) {
+            write(() -> writeVisual(++groupNumber, dHash, files));
+        }
+
+        final synchronized void removedGroup(String key) {
+            write(() -> writeRemoved(key));
+        }
+
+        final synchronized void partialPair(ScanEngine.PartialDuplicate pair) {
+            write(() -> writePartial(++groupNumber, pair));
+        }
+
+        final synchronized void summary(ScanEngine engine, long elapsedMillis) {
+            write(() -> writeSummary(engine, elapsedMillis));
+        }
+
+        final synchronized boolean failed() {
+            return failure != null;
+        }
+
+        private void write(IoAction action) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                action.run();
+                out.flush();
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Error writing results: " + e.getMessage());
+            }
+        }
+
+        abstract void writeExact(int group, String hash, long size, List<Path> files) throws IOException;
+
+        abstract void writeVisual(int group, String dHash, List<Path> files) throws IOException;
+
+        abstract void writeRemoved(String key) throws IOException;
+
+        abstract void writePartial(int group, ScanEngine.PartialDuplicate pair) throws IOException;
+
+        void writeSummary(ScanEngine engine, long elapsedMillis) throws IOException {
+        }
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * One JSON object per line: an "exact" or "visual" record per group and a "partial" record per pair of
+     * partial duplicates, then a "summary" record; in watch mode further group records and "removed" records
+     * follow.
+     */
+    private static final class JsonLinesWriter extends ResultWriter {
+        JsonLinesWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void writeExact(int group, String hash, long size, List<Path> files) throws IOException {
+            out.write("{\"type\":\"exact\",\"group\":" + group + ",\"hash\":" + LogExporter.jsonString(hash)
+                + ",\"size\":" + size + ",\"count\":" + files.size() + ",\"files\":" + array(files) + "}\n");
+        }
+
+        @Override
+        void writeVisual(int group, String dHash, List<Path> files) throws IOException {
+            out.write("{\"type\":\"visual\",\"group\":" + group + ",\"dhash\":" + LogExporter.jsonString(dHash)
+                + ",\"count\":" + files.size() + ",\"files\":" + array(files) + "}\n");
+        }
+
+        @Override
+        void writeRemoved(String key) throws IOException {
+            out.write("{\"type\":\"removed\",\"key\":" + LogExporter.jsonString(key) + "}\n");
+        }
+
+        @Override
+        void writePartial(int group, ScanEngine.PartialDuplicate pair) throws IOException {
+            out.write("{\"type\":\"partial\",\"group\":" + group + ",\"sharedBytes\":" + pair.sharedBytes
+                + ",\"fraction\":" + String.format(Locale.ROOT, "%.3f", pair.fraction)
+                + ",\"files\":" + array(List.of(pair.first, pair.second)) + "}\n");
+        }
+
+        @Override
+        void writeSummary(ScanEngine engine, long elapsedMillis) throws IOException {
+            out.write("{\"type\":\"summary\",\"files\":" + engine.files().size()
+                + ",\"exactGroups\":" + exactGroups + ",\"exactFiles\":" + exactFiles
+                + ",\"reclaimableBytes\":" + reclaimableBytes + ",\"visualGroups\":" + engine.visualDuplicates().size()
+                + (engine.settings().findPartialDuplicates ? ",\"partialPairs\":" + engine.partialDuplicates().size()
+                    + ",\"blockSavingsBytes\":" + engine.blockSavings() : "")
+                + ",\"elapsedMillis\":" + elapsedMillis + "}\n");
+        }
+
+        private static String array(List<Path> files) {
+            StringBuilder json = new StringBuilder("[");
+            for (Path file : files) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+                json.append(LogExporter.jsonString(file.toString()));
+            }
+            return json.append(']').toString();
+        }
+    }
+
+    /**
+     * One row per file with columns type,group,hash,size,path; a removed group is a single row with only its key
+     * in the hash column, and a partial pair is two rows with the shared bytes in the size column. Fields are
+     * quoted as in RFC 4180.
+     */
+    private static final class CsvWriter extends ResultWriter {
+        CsvWriter(Writer out) throws IOException {
+            super(out);
+            out.write("type,group,hash,size,path\r\n");
+        }
+
+        @Override
+        void writeExact(int group, String hash, long size, List<Path> files) throws IOException {
+            for (Path file : files) {
+                out.write("exact," + group + "," + LogExporter.csvField(hash) + "," + size + ","
+                    + LogExporter.csvField(file.toString()) + "\r\n");
+            }
+        }
+
+        @Override
+        void writeVisual(int group, String dHash, List<Path> files) throws IOException {
+            for (Path file : files) {
+                out.write("visual," + group + "," + LogExporter.csvField(dHash) + ",,"
+                    + LogExporter.csvField(file.toString()) + "\r\n");
+            }
+        }
+
+        @Override
+        void writeRemoved(String key) throws IOException {
+            out.write("removed,," + LogExporter.csvField(key) + ",,\r\n");
+        }
+
+        @Override
+        void writePartial(int group, ScanEngine.PartialDuplicate pair) throws IOException {
+            for (Path file : List.of(pair.first, pair.second)) {
+                out.write("partial," + group + ",," + pair.sharedBytes + "," + LogExporter.csvField(file.toString())
+                    + "\r\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Single-column table model over the duplicate groups. Rows are section titles, group titles and files, but
+ * none of them are materialised: a row is resolved by binary search over each entry's first row, and the
+ * "delete" checkboxes live in one bit per file, so a JTable only pays for the rows it actually paints.
+ */
+final class DuplicateGroupsModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> titles = new ArrayList<>();
+    private final List<List<Path>> members = new ArrayList<>();
+    private final List<Boolean> visual = new ArrayList<>();
+    // Entry e covers rows firstRows[e] .. firstRows[e + 1]; its files are numbered from firstFiles[e]
+    private int[] firstRows = new int[1];
+    private int[] firstFiles = new int[1];
+    private final BitSet selected = new BitSet();
+
+    /** Removes every entry. Call {@link #fireTableDataChanged()} once the new entries are added. */
+    void clear() {
+        titles.clear();
+        members.clear();
+        visual.clear();
+        firstRows = new int[1];
+        firstFiles = new int[1];
+        selected.clear();
+    }
+
+    /** Appends a section heading row. */
+    void addSection(String title, boolean isVisual) {
+        addEntry(title, List.of(), isVisual);
+    }
+
+    /** Appends a group title row followed by one row per file; every file but the first is pre-selected. */
+    void addGroup(String title, List<Path> files, boolean isVisual) {
+        int firstFile = addEntry(title, files, isVisual);
+        if (files.size() > 1) {
+            selected.set(firstFile + 1, firstFile + files.size());
+        }
+    }
+
+    private int addEntry(String title, List<Path> files, boolean isVisual) {
+        int entry = titles.size();
+        titles.add(title);
+        members.add(files);
+        visual.add(isVisual);
+        if (entry + 2 > firstRows.length) {
+            firstRows = Arrays.copyOf(firstRows, Math.max(16, firstRows.length * 2));
+            firstFiles = Arrays.copyOf(firstFiles, firstRows.length);
+        }
+        firstRows[entry + 1] = firstRows[entry] + 1 + files.size();
+        firstFiles[entry + 1] = firstFiles[entry] + files.size();
+        return firstFiles[entry];
+    }
+
+    @Override
+    public int getRowCount() {
+        return firstRows[titles.size()];
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 1;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Path file = file(row);
+        return file != null ? file : title(row);
+    }
+
+    /** True for section and group title rows. */
+    boolean isTitle(int row) {
+        return file(row) == null;
+    }
+
+    /** True for section heading rows. */
+    boolean isSection(int row) {
+        int entry = entryOf(row);
+        return members.get(entry).isEmpty();
+    }
+
+    boolean isVisual(int row) {
+        return visual.get(entryOf(row));
+    }
+
+    /** Returns the title of the section or group a row belongs to. */
+    String title(int row) {
+        return titles.get(entryOf(row));
+    }
+
+    /** Returns the file shown on a row, or null for title rows. */
+    Path file(int row) {
+        int entry = entryOf(row);
+        int member = row - firstRows[entry] - 1;
+        return member < 0 ? null : members.get(entry).get(member);
+    }
+
+    boolean isSelected(int row) {
+        int index = fileIndex(row);
+        return index >= 0 && selected.get(index);
+    }
+
+    /** Flips the checkbox of a file row; title rows are ignored. */
+    void toggle(int row) {
+        int index = fileIndex(row);
+        if (index >= 0) {
+            selected.flip(index);
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    void setAllSelected(boolean select) {
+        selected.set(0, firstFiles[titles.size()], select);
+        if (getRowCount() > 0) {
+            fireTableRowsUpdated(0, getRowCount() - 1);
+        }
+    }
+
+    List<Path> selectedFiles() {
+        List<Path> files = new ArrayList<>(selected.cardinality());
+        for (int entry = 0; entry < titles.size(); entry++) {
+            List<Path> entryFiles = members.get(entry);
+            for (int member = 0; member < entryFiles.size(); member++) {
+                if (selected.get(firstFiles[entry] + member)) {
+                    files.add(entryFiles.get(member));
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Maps each selected file of an exact-duplicate group to the group's first unselected file, which it can
+     * be linked to. Groups with every file selected keep their first file as the target.
+     */
+    Map<Path, Path> selectedLinkTargets() {
+        Map<Path, Path> targets = new LinkedHashMap<>();
+        for (int entry = 0; entry < titles.size(); entry++) {
+            List<Path> entryFiles = members.get(entry);
+            if (visual.get(entry) || entryFiles.isEmpty()) {
+                continue;
+            }
+            int target = 0;
+            while (target < entryFiles.size() && selected.get(firstFiles[entry] + target)) {
+                target++;
+            }
+            if (target == entryFiles.size()) {
+                target = 0;
+            }
+            for (int member = 0; member < entryFiles.size(); member++) {
+                if (member != target && selected.get(firstFiles[entry] + member)) {
+                    targets.put(entryFiles.get(member), entryFiles.get(target));
+                }
+            }
+        }
+        return targets;
+    }
+
+    private int fileIndex(int row) {
+        int entry = entryOf(row);
+        int member = row - firstRows[entry] - 1;
+        return member < 0 ? -1 : firstFiles[entry] + member;
+    }
+
+    private int entryOf(int row) {
+        int index = Arrays.binarySearch(firstRows, 0, titles.size(), row);
+        return index >= 0 ? index : -index - 2;
+    }
+}
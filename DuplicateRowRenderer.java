@@ -0,0 +1,82 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.nio.file.Path;
+import javax.swing.BorderFactory;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.border.Border;
+import javax.swing.table.TableCellRenderer;
+
+/**
+ * Paints rows of a {@link DuplicateGroupsModel}. The same few components are reconfigured for every row the
+ * table paints, instead of a panel, checkbox, button and label per file.
+ */
+final class DuplicateRowRenderer implements TableCellRenderer {
+    /** Clicks on a file row left of this x-coordinate toggle its checkbox. */
+    static final int CHECKBOX_WIDTH = 36;
+
+    private static final Color EXACT_COLOR = Color.BLUE;
+    private static final Color VISUAL_COLOR = new Color(0, 120, 0);
+    private static final Color GROUP_BACKGROUND = new Color(240, 240, 245);
+    private static final Border SECTION_BORDER = BorderFactory.createEmptyBorder(0, 5, 0, 5);
+    private static final Border GROUP_BORDER = BorderFactory.createEmptyBorder(0, 8, 0, 5);
+
+    private final JPanel filePanel = new JPanel(new BorderLayout());
+    private final JCheckBox checkbox = new JCheckBox();
+    private final JLabel nameLabel = new JLabel();
+    private final JLabel pathLabel = new JLabel();
+    private final JLabel titleLabel = new JLabel();
+    private final Font sectionFont;
+    private final Font groupFont;
+
+    DuplicateRowRenderer() {
+        JPanel leftPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 0));
+        leftPanel.setOpaque(false);
+        checkbox.setOpaque(false);
+        leftPanel.add(checkbox);
+        leftPanel.add(nameLabel);
+        pathLabel.setFont(pathLabel.getFont().deriveFont(Font.PLAIN, 9f));
+        pathLabel.setForeground(Color.GRAY);
+        pathLabel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
+        filePanel.add(leftPanel, BorderLayout.WEST);
+        filePanel.add(pathLabel, BorderLayout.CENTER);
+        filePanel.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 5));
+
+        titleLabel.setOpaque(true);
+        sectionFont = titleLabel.getFont().deriveFont(Font.BOLD, titleLabel.getFont().getSize2D() + 2f);
+        groupFont = titleLabel.getFont().deriveFont(Font.BOLD);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+            int row, int column) {
+        DuplicateGroupsModel model = (DuplicateGroupsModel) table.getModel();
+        Color background = isSelected ? table.getSelectionBackground() : table.getBackground();
+        Color accent = model.isVisual(row) ? VISUAL_COLOR : EXACT_COLOR;
+        Path file = model.file(row);
+        if (file == null) {
+            boolean section = model.isSection(row);
+            titleLabel.setText(model.title(row));
+            titleLabel.setFont(section ? sectionFont : groupFont);
+            titleLabel.setForeground(section ? accent : table.getForeground());
+            titleLabel.setBackground(section ? table.getBackground() : GROUP_BACKGROUND);
+            titleLabel.setBorder(section ? SECTION_BORDER : GROUP_BORDER);
+            titleLabel.setToolTipText(null);
+            return titleLabel;
+        }
+
+        checkbox.setSelected(model.isSelected(row));
+        nameLabel.setText(String.valueOf(file.getFileName()));
+        nameLabel.setForeground(isSelected ? table.getSelectionForeground() : accent);
+        Path parent = file.getParent();
+        pathLabel.setText(parent == null ? "" : parent.toString());
+        filePanel.setBackground(background);
+        filePanel.setToolTipText(file.toString());
+        return filePanel;
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Channel-based content hashing. Small and medium files are read through pooled direct buffers and large
+ * files through memory-mapped regions, so bytes go from the page cache into the digest without being
+ * copied through intermediate heap arrays.
+ */
+final class FileHasher {
+    static final int STREAM_BUFFER_SIZE = 8192;
+    static final int DIRECT_BUFFER_SIZE = 1 << 20;
+    static final int MAPPED_REGION_SIZE = 64 << 20;
+    // Files at least this large are memory-mapped (-Ddff.mmapThreshold=bytes, 0 disables mapping)
+    static final long MMAP_THRESHOLD = Long.getLong("dff.mmapThreshold", 16L << 20);
+
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private FileHasher() {
+    }
+
+    static byte[] hash(Path file, MessageDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (MMAP_THRESHOLD > 0 && size >= MMAP_THRESHOLD) {
+                digestMapped(channel, size, digest);
+            } else {
+                digestDirect(channel, digest);
+            }
+        }
+        return digest.digest();
+    }
+
+    static byte[] hashDirect(Path file, MessageDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            digestDirect(channel, digest);
+        }
+        return digest.digest();
+    }
+
+    static byte[] hashMapped(Path file, MessageDigest digest) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            digestMapped(channel, channel.size(), digest);
+        }
+        return digest.digest();
+    }
+
+    /** The original buffered-stream path, kept as a baseline for benchmarks. */
+    static byte[] hashStream(Path file, MessageDigest digest) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream)) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = bufferedInputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+        return digest.digest();
+    }
+
+    /** Digests the first and last {@code sampleSize} bytes of the file. */
+    static byte[] hashSample(Path file, int sampleSize, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position : new long[] { 0, Math.max(0, size - sampleSize) }) {
+                long end = Math.min(size, position + sampleSize);
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead < 0) {
+                        break;
+                    }
+                    position += bytesRead;
+                    buffer.flip();
+                    digest.update(buffer);
+                }
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return digest.digest();
+    }
+
+    /** Compares two files byte for byte. */
+    static boolean contentEquals(Path first, Path second) throws IOException {
+        ByteBuffer firstBuffer = acquireBuffer();
+        ByteBuffer secondBuffer = acquireBuffer();
+        try (FileChannel firstChannel = FileChannel.open(first, StandardOpenOption.READ);
+             FileChannel secondChannel = FileChannel.open(second, StandardOpenOption.READ)) {
+            if (firstChannel.size() != secondChannel.size()) {
+                return false;
+            }
+            while (true) {
+                int firstRead = fill(firstChannel, firstBuffer);
+                int secondRead = fill(secondChannel, secondBuffer);
+                if (firstRead != secondRead) {
+                    return false;
+                }
+                if (firstRead == 0) {
+                    return true;
+                }
+                firstBuffer.flip();
+                secondBuffer.flip();
+                if (!firstBuffer.equals(secondBuffer)) {
+                    return false;
+                }
+            }
+        } finally {
+            releaseBuffer(firstBuffer);
+            releaseBuffer(secondBuffer);
+        }
+    }
+
+    static String toHex(byte[] hashBytes) {
+        StringBuilder hexString = new StringBuilder(hashBytes.length * 2);
+
+        for (byte b : hashBytes) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
+        }
+
+        return hexString.toString();
+    }
+
+    private static void digestDirect(FileChannel channel, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Digests {@code length} bytes from {@code position} without moving the channel's position, so several
+     * threads can digest ranges of one channel at once. Ranges of files at the mapping threshold are mapped.
+     */
+    static void digestRange(FileChannel channel, long position, long length, MessageDigest digest) throws IOException {
+        long end = position + length;
+        if (MMAP_THRESHOLD > 0 && channel.size() >= MMAP_THRESHOLD) {
+            for (; position < end; position += MAPPED_REGION_SIZE) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_REGION_SIZE, end - position)));
+            }
+            return;
+        }
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int bytesRead = channel.read(buffer, position);
+                if (bytesRead < 0) {
+                    break;
+                }
+                position += bytesRead;
+                buffer.flip();
+                digest.update(buffer);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void digestMapped(FileChannel channel, long size, MessageDigest digest) throws IOException {
+        for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+            long length = Math.min(MAPPED_REGION_SIZE, size - position);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            digest.update(region);
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        BUFFER_POOL.offer(buffer);
+    }
+}
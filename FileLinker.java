@@ -0,0 +1,203 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces duplicate files with hard links to (or copy-on-write clones of) a file with the same content, so
+ * every path stays valid while the space is reclaimed. Each replacement is verified byte for byte, built
+ * under a temporary name next to the duplicate and renamed over it atomically, so a path always holds either
+ * the old file or the finished link. Temporary names are written to a journal before each batch; if a run is
+ * interrupted, the next one rolls the unfinished batch back by removing whatever temporaries it left.
+ */
+final class FileLinker {
+    enum Mode {
+        HARD_LINK("hard link"), CLONE("copy-on-write clone");
+
+        final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /** Outcome of a run; updated concurrently by the workers. Linked files include those that already were. */
+    static final class Result {
+        final AtomicInteger linked = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicLong bytesReclaimed = new AtomicLong();
+        final List<Path> linkedFiles = Collections.synchronizedList(new ArrayList<>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    static final String TEMP_SUFFIX = ".dff-link";
+    private static final String BATCH = "BATCH";
+    private static final String COMMIT = "COMMIT";
+    private static final long CLONE_TIMEOUT_SECONDS = 300;
+
+    private final Path journalFile;
+    private final Mode mode;
+    private FileChannel journal;
+    private Writer journalWriter;
+
+    FileLinker(Path journalFile, Mode mode) {
+        this.journalFile = journalFile;
+        this.mode = mode;
+    }
+
+    /** Journal location from -Ddff.linkJournal, next to the hash cache by default. */
+    static Path journalFromSystemProperties() {
+        return Paths.get(System.getProperty("dff.linkJournal",
+            Paths.get(System.getProperty("user.home"), ".duplicatefilefinder", "link-journal.log").toString()));
+    }
+
+    static String temporaryName(Path duplicate) {
+        return duplicate.getFileName() + TEMP_SUFFIX;
+    }
+
+    /** Rolls back a run that did not finish, then opens a fresh journal. */
+    void open() throws IOException {
+        rollBack();
+        Files.createDirectories(journalFile.toAbsolutePath().getParent());
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        journalWriter = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(journal),
+            StandardCharsets.UTF_8));
+    }
+
+    /** Records the temporaries a batch may create and forces them to disk before any of them exists. */
+    void beginBatch(List<Path> duplicates) throws IOException {
+        journalWriter.write(BATCH + "\n");
+        for (Path duplicate : duplicates) {
+            journalWriter.write(duplicate.resolveSibling(temporaryName(duplicate)) + "\n");
+        }
+        journalWriter.flush();
+        journal.force(false);
+    }
+
+    void commitBatch() throws IOException {
+        journalWriter.write(COMMIT + "\n");
+        journalWriter.flush();
+        journal.force(false);
+    }
+
+    /** Closes and removes the journal after every batch committed. */
+    void close() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+            journal = null;
+        }
+        Files.deleteIfExists(journalFile);
+    }
+
+    /**
+     * Replaces {@code duplicate} with a link to {@code target} after checking both hold the same bytes. Failures
+     * are recorded in the result and leave the duplicate untouched.
+     */
+    void replace(Path duplicate, Path target, Result result) {
+        Path temporary = duplicate.resolveSibling(temporaryName(duplicate));
+        boolean created = false;
+        try {
+            if (Files.isSameFile(duplicate, target)) {
+                result.skipped.incrementAndGet();
+                result.linkedFiles.add(duplicate);
+                return;
+            }
+            long size = Files.size(duplicate);
+            if (size != Files.size(target) || !FileHasher.contentEquals(duplicate, target)) {
+                result.errors.add("Content changed since the scan: " + duplicate);
+                return;
+            }
+            if (Files.exists(temporary, LinkOption.NOFOLLOW_LINKS)) {
+                result.errors.add("Temporary name already in use: " + temporary);
+                return;
+            }
+            created = true;
+            if (mode == Mode.HARD_LINK) {
+                Files.createLink(temporary, target);
+            } else {
+                cloneFile(target, temporary);
+            }
+            Files.move(temporary, duplicate, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            result.linked.incrementAndGet();
+            result.bytesReclaimed.addAndGet(size);
+            result.linkedFiles.add(duplicate);
+        } catch (IOException | UnsupportedOperationException e) {
+            result.errors.add("Could not create " + mode.displayName + " for " + duplicate + ": " + e.getMessage());
+            if (created) {
+                deleteTemporary(temporary);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (created) {
+                deleteTemporary(temporary);
+            }
+        }
+    }
+
+    /** Removes temporaries listed in an uncommitted batch of a previous run. */
+    private void rollBack() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        List<Path> pending = new ArrayList<>();
+        for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+            if (line.equals(BATCH) || line.equals(COMMIT)) {
+                pending.clear();
+            } else if (!line.isEmpty()) {
+                pending.add(Paths.get(line));
+            }
+        }
+        for (Path temporary : pending) {
+            // Only our own temporaries, never a user's file, are ever removed
+            if (temporary.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                deleteTemporary(temporary);
+            }
+        }
+        Files.delete(journalFile);
+    }
+
+    private static void cloneFile(Path source, Path clone) throws IOException, InterruptedException {
+        // Java has no reflink call; cp asks the filesystem for a shared-extent copy and fails if it cannot
+        String os = System.getProperty("os.name").toLowerCase();
+        List<String> command = new ArrayList<>();
+        command.add("cp");
+        if (os.contains("mac")) {
+            command.add("-c");
+        } else if (os.contains("linux")) {
+            command.add("--reflink=always");
+        } else {
+            throw new UnsupportedOperationException("copy-on-write clones are not supported on " + os);
+        }
+        command.add(source.toString());
+        command.add(clone.toString());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        if (!process.waitFor(CLONE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("cloning timed out");
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        if (process.exitValue() != 0) {
+            throw new IOException(output.isEmpty() ? "cp exited with " + process.exitValue() : output);
+        }
+    }
+
+    private static void deleteTemporary(Path temporary) {
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            System.err.println("Error removing temporary link: " + temporary + " - " + e.getMessage());
+        }
+    }
+}
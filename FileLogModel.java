@@ -0,0 +1,348 @@
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import javax.swing.AbstractListModel;
+import javax.swing.Timer;
+
+/**
+ * The "all files" log as a list model. Files are sorted by name once per scan using the names themselves as
+ * sort keys, each line is formatted only when it is displayed or exported, and checking or unchecking a file
+ * changes one status byte and the totals. Changes are coalesced into one repaint per refresh interval, so
+ * "Select All" over a large result costs one pass rather than a rebuild per file.
+ */
+final class FileLogModel extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+
+    static final String ON_DEMAND_HASH = "(on demand)";
+    private static final int REFRESH_DELAY_MILLIS = 150;
+    private static final byte UNIQUE = 0;
+    private static final byte UNCHECKED = 1;
+    private static final byte CHECKED = 2;
+    private static final String[] STATUS_LABELS = { "[UNIQUE]   ", "[UNCHECKED]", "[CHECKED]  " };
+    private static final String[] STATUS_NAMES = { "unique", "unchecked", "checked" };
+
+    private String[] header = new String[0];
+    private String generated;
+    private String hashName;
+    private FileTable files;
+    // Table rows in display order, and the status of each displayed file
+    private int[] order = new int[0];
+    private byte[] status = new byte[0];
+    private final Map<Path, Integer> positions = new HashMap<>();
+    private final int[] counts = new int[3];
+    private int longestLine;
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+    private final Timer refreshTimer = new Timer(REFRESH_DELAY_MILLIS, e -> flush());
+
+    FileLogModel() {
+        refreshTimer.setRepeats(false);
+    }
+
+    /** Empties the log, e.g. while a new scan is running; the previous scan's table is let go. */
+    void clear() {
+        int oldSize = getSize();
+        files = null;
+        order = new int[0];
+        status = new byte[0];
+        positions.clear();
+        Arrays.fill(counts, 0);
+        header = new String[0];
+        refreshTimer.stop();
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+    }
+
+    /** Rebuilds the log for a finished scan; {@code checkedFiles} must be a subset of {@code duplicateFiles}. */
+    void reset(FileTable files, String hashName, Set<Path> duplicateFiles, Collection<Path> checkedFiles) {
+        int oldSize = getSize();
+        this.files = files;
+        int rowCount = files.size();
+        String[] names = new String[rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            names[row] = files.name(row);
+        }
+        // Rows removed by deletions or live updates are left out; stable sort, so equal names keep scan order
+        order = IntStream.range(0, rowCount).filter(row -> !files.isRemoved(row)).boxed()
+            .sorted((first, second) -> String.CASE_INSENSITIVE_ORDER.compare(names[first], names[second]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+        int fileCount = order.length;
+        status = new byte[fileCount];
+        positions.clear();
+        counts[UNIQUE] = fileCount;
+        counts[UNCHECKED] = 0;
+        counts[CHECKED] = 0;
+        int longestNameAndPath = 0;
+        for (int position = 0; position < fileCount; position++) {
+            Path file = files.path(order[position]);
+            longestNameAndPath = Math.max(longestNameAndPath,
+                names[order[position]].length() + file.toString().length());
+            if (duplicateFiles.contains(file)) {
+                positions.put(file, position);
+                setStatus(position, UNCHECKED);
+            }
+        }
+        for (Path file : checkedFiles) {
+            Integer position = positions.get(file);
+            if (position != null) {
+                setStatus(position, CHECKED);
+            }
+        }
+        // Number, status, separators and a 64-digit hash around the name and path
+        longestLine = Math.max(100, 110 + longestNameAndPath);
+
+        this.generated = LocalDateTime.now().toString();
+        this.hashName = hashName;
+        header = new String[] {
+            "ALL FILES LOG",
+            "=============",
+            String.format("Generated: %s", generated),
+            "",
+            "Format: [STATUS] FILENAME | HASH | DHASH | FULL_PATH",
+            "STATUS: [CHECKED] = Selected for deletion, [UNCHECKED] = Not selected, [UNIQUE] = No duplicates",
+            "HASH: " + hashName + " file content hash, " + ON_DEMAND_HASH + " for files with a unique size",
+            "DHASH: Image perceptual hash (only for images)",
+            "",
+            null,
+            ""
+        };
+        refreshTimer.stop();
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (getSize() > 0) {
+            fireIntervalAdded(this, 0, getSize() - 1);
+        }
+    }
+
+    /**
+     * Drops files the table has marked removed and re-derives every status, without sorting or visiting
+     * unaffected files again. Deleting or linking files only shrinks groups, so the remaining duplicates are a
+     * subset of the files already tracked.
+     */
+    void update(Set<Path> duplicateFiles, Collection<Path> checkedFiles) {
+        int oldSize = getSize();
+        // New arrays rather than compaction in place, since a running export may still share the old order
+        int[] newPositions = new int[order.length];
+        int[] keptOrder = new int[order.length];
+        int kept = 0;
+        for (int position = 0; position < order.length; position++) {
+            if (files.isRemoved(order[position])) {
+                newPositions[position] = -1;
+            } else {
+                newPositions[position] = kept;
+                keptOrder[kept++] = order[position];
+            }
+        }
+        order = Arrays.copyOf(keptOrder, kept);
+        status = new byte[kept];
+        Map<Path, Integer> previous = new HashMap<>(positions);
+        positions.clear();
+        counts[UNIQUE] = kept;
+        counts[UNCHECKED] = 0;
+        counts[CHECKED] = 0;
+        for (Map.Entry<Path, Integer> entry : previous.entrySet()) {
+            int position = newPositions[entry.getValue()];
+            if (position >= 0 && duplicateFiles.contains(entry.getKey())) {
+                positions.put(entry.getKey(), position);
+                setStatus(position, UNCHECKED);
+            }
+        }
+        for (Path file : checkedFiles) {
+            Integer position = positions.get(file);
+            if (position != null) {
+                setStatus(position, CHECKED);
+            }
+        }
+
+        if (getSize() < oldSize) {
+            fireIntervalRemoved(this, getSize(), oldSize - 1);
+        }
+        refresh();
+    }
+
+    /** Records a checkbox change for a duplicate file; the display catches up on the next refresh. */
+    void setChecked(Path file, boolean checked) {
+        Integer position = positions.get(file);
+        if (position != null) {
+            setStatus(position, checked ? CHECKED : UNCHECKED);
+            markDirty(header.length + position);
+        }
+    }
+
+    /** Checks or unchecks every duplicate file. */
+    void setAllChecked(boolean checked) {
+        for (int position : positions.values()) {
+            setStatus(position, checked ? CHECKED : UNCHECKED);
+        }
+        markDirty(header.length);
+        markDirty(getSize() - 1);
+    }
+
+    /** Redisplays every line, e.g. after on-demand hashes were computed. */
+    void refresh() {
+        markDirty(0);
+        markDirty(getSize() - 1);
+    }
+
+    /** A string as long as the longest line, for sizing a fixed-width list without measuring every line. */
+    String prototypeLine() {
+        char[] line = new char[longestLine];
+        Arrays.fill(line, '0');
+        return new String(line);
+    }
+
+    @Override
+    public int getSize() {
+        return header.length + order.length;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index < header.length) {
+            return header[index] != null ? header[index] : totalsLine(order.length, counts);
+        }
+        int position = index - header.length;
+        return fileLine(files, position, order[position], status[position]);
+    }
+
+    /**
+     * Copies what an export needs on the event thread: the status bytes, which later toggles would change,
+     * and the header. The display order is replaced rather than modified, and the file table only gains rows
+     * or removed marks: a new scan builds a new table instead of clearing this one.
+     */
+    Snapshot snapshot() {
+        String[] lines = header.clone();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] == null) {
+                lines[i] = totalsLine(order.length, counts);
+            }
+        }
+        return new Snapshot(lines, generated, hashName, counts.clone(), files, order, status.clone());
+    }
+
+    /** Frozen copy of the log for writing it out from a background thread. */
+    static final class Snapshot {
+        final String[] header;
+        final String generated;
+        final String hashName;
+        private final int[] counts;
+        private final FileTable files;
+        private final int[] order;
+        private final byte[] status;
+
+        private Snapshot(String[] header, String generated, String hashName, int[] counts, FileTable files,
+                int[] order, byte[] status) {
+            this.header = header;
+            this.generated = generated;
+            this.hashName = hashName;
+            this.counts = counts;
+            this.files = files;
+            this.order = order;
+            this.status = status;
+        }
+
+        int fileCount() {
+            return order.length;
+        }
+
+        int checkedCount() {
+            return counts[CHECKED];
+        }
+
+        int uncheckedCount() {
+            return counts[UNCHECKED];
+        }
+
+        int uniqueCount() {
+            return counts[UNIQUE];
+        }
+
+        /** The log line of the file at a display position, as shown on screen. */
+        String line(int position) {
+            return fileLine(files, position, order[position], status[position]);
+        }
+
+        /** "checked", "unchecked" or "unique". */
+        String status(int position) {
+            return STATUS_NAMES[status[position]];
+        }
+
+        String name(int position) {
+            return files.name(order[position]);
+        }
+
+        /** The content hash as hex, or null while it has not been computed. */
+        String hash(int position) {
+            return files.hash(order[position]);
+        }
+
+        /** The image dHash as hex, or null for non-images. */
+        String dHash(int position) {
+            int row = order[position];
+            return files.hasDHash(row) ? ScanEngine.formatDHash(files.dHash(row)) : null;
+        }
+
+        long size(int position) {
+            return files.fileSize(order[position]);
+        }
+
+        Path path(int position) {
+            return files.path(order[position]);
+        }
+    }
+
+    private static String fileLine(FileTable files, int position, int row, byte status) {
+        String hash = files.hasHash(row) ? files.hash(row) : ON_DEMAND_HASH;
+        String dHash = files.hasDHash(row) ? ScanEngine.formatDHash(files.dHash(row)) : "N/A";
+        return String.format("%4d. %s %s | %s | %s | %s",
+            position + 1, STATUS_LABELS[status], files.name(row), hash, dHash, files.path(row));
+    }
+
+    private static String totalsLine(int fileCount, int[] counts) {
+        if (fileCount == 0) {
+            return "No files scanned yet.";
+        }
+        return String.format("Total files: %d (Checked: %d, Unchecked: %d, Unique: %d)",
+            fileCount, counts[CHECKED], counts[UNCHECKED], counts[UNIQUE]);
+    }
+
+    private void setStatus(int position, byte newStatus) {
+        counts[status[position]]--;
+        counts[newStatus]++;
+        status[position] = newStatus;
+    }
+
+    private void markDirty(int index) {
+        dirtyFrom = Math.min(dirtyFrom, index);
+        dirtyTo = Math.max(dirtyTo, index);
+        if (!refreshTimer.isRunning()) {
+            refreshTimer.start();
+        }
+    }
+
+    private void flush() {
+        if (dirtyTo < 0 || header.length == 0) {
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+            return;
+        }
+        // The totals line changes with every status change
+        int totalsIndex = header.length - 2;
+        fireContentsChanged(this, totalsIndex, totalsIndex);
+        fireContentsChanged(this, dirtyFrom, Math.min(dirtyTo, getSize() - 1));
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+    }
+}
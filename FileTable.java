@@ -0,0 +1,302 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar table of scanned files addressed by int row id. Each row stores an interned parent directory id,
+ * its UTF-8 name in a shared byte arena, its size as a primitive, and raw hash bytes, so a file
+ * costs well under 100 bytes instead of a Path, several strings and a hex hash. Paths are rebuilt on demand.
+ * Row ids never change once assigned; {@link #compacted()} renumbers rows into a new table instead. All methods
+ * are synchronized, so walker and hashing threads can share it.
+ */
+final class FileTable {
+    private interface RowOrder {
+        int compare(int firstRow, int secondRow);
+    }
+
+    private static final int INITIAL_ROWS = 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final int hashBytes;
+    private final List<Path> directories = new ArrayList<>();
+    private final Map<Path, Integer> directoryIds = new HashMap<>();
+    private int rowCount;
+    private int[] directoryOf = new int[INITIAL_ROWS];
+    // Name of row r occupies names[nameStarts[r] .. nameStarts[r + 1])
+    private int[] nameStarts = new int[INITIAL_ROWS + 1];
+    private byte[] names = new byte[INITIAL_ROWS * 16];
+    private long[] sizes = new long[INITIAL_ROWS];
+    private byte[] hashes;
+    private final BitSet hashed = new BitSet();
+    private long[] dHashes = new long[INITIAL_ROWS];
+    private final BitSet dHashed = new BitSet();
+    // Rows of files deleted since the scan; they keep their ids but drop out of groups and listings
+    private final BitSet removed = new BitSet();
+
+    FileTable(int hashBytes) {
+        this.hashBytes = hashBytes;
+        this.hashes = new byte[INITIAL_ROWS * hashBytes];
+    }
+
+    /** Appends a file and returns its row id. */
+    synchronized int add(Path file, BasicFileAttributes attributes) {
+        byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        return append(file.getParent(), name, 0, name.length, attributes.size());
+    }
+
+    private int append(Path directory, byte[] name, int nameOffset, int nameLength, long size) {
+        if (rowCount == sizes.length) {
+            grow(sizes.length * 2);
+        }
+        int row = rowCount++;
+        Integer directoryId = directoryIds.get(directory);
+        if (directoryId == null) {
+            directoryId = directories.size();
+            directories.add(directory);
+            directoryIds.put(directory, directoryId);
+        }
+        directoryOf[row] = directoryId;
+
+        int start = nameStarts[row];
+        if (start + nameLength > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, start + nameLength));
+        }
+        System.arraycopy(name, nameOffset, names, start, nameLength);
+        nameStarts[row + 1] = start + nameLength;
+
+        sizes[row] = size;
+        return row;
+    }
+
+    /** Length of the raw content hash of each row. */
+    int hashBytes() {
+        return hashBytes;
+    }
+
+    synchronized int size() {
+        return rowCount;
+    }
+
+    synchronized Path path(int row) {
+        return directories.get(directoryOf[row]).resolve(name(row));
+    }
+
+    synchronized String name(int row) {
+        return new String(names, nameStarts[row], nameStarts[row + 1] - nameStarts[row], StandardCharsets.UTF_8);
+    }
+
+    synchronized long fileSize(int row) {
+        return sizes[row];
+    }
+
+    synchronized boolean hasHash(int row) {
+        return hashed.get(row);
+    }
+
+    /** Returns the row's content hash as lowercase hex, or null if it has not been computed. */
+    synchronized String hash(int row) {
+        if (!hashed.get(row)) {
+            return null;
+        }
+        char[] hex = new char[hashBytes * 2];
+        for (int i = 0; i < hashBytes; i++) {
+            int value = hashes[row * hashBytes + i] & 0xFF;
+            hex[i * 2] = HEX_DIGITS[value >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[value & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    synchronized void setHash(int row, String hex) {
+        if (hex.length() != hashBytes * 2) {
+            throw new IllegalArgumentException("Expected a " + hashBytes + "-byte hash: " + hex);
+        }
+        for (int i = 0; i < hashBytes; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not a hex hash: " + hex);
+            }
+            hashes[row * hashBytes + i] = (byte) (high << 4 | low);
+        }
+        hashed.set(row);
+    }
+
+    synchronized boolean hasDHash(int row) {
+        return dHashed.get(row);
+    }
+
+    synchronized long dHash(int row) {
+        return dHashes[row];
+    }
+
+    synchronized void setDHash(int row, long dHash) {
+        dHashes[row] = dHash;
+        dHashed.set(row);
+    }
+
+    synchronized boolean isRemoved(int row) {
+        return removed.get(row);
+    }
+
+    synchronized int removedCount() {
+        return removed.cardinality();
+    }
+
+    /**
+     * A new table holding the rows not marked removed, in the same order but renumbered, with their hashes and
+     * dHashes. This table is left as it is, so anyone still reading it by row id sees consistent rows.
+     */
+    synchronized FileTable compacted() {
+        FileTable copy = new FileTable(hashBytes);
+        for (int row = 0; row < rowCount; row++) {
+            if (removed.get(row)) {
+                continue;
+            }
+            int copied = copy.append(directories.get(directoryOf[row]), names, nameStarts[row],
+                nameStarts[row + 1] - nameStarts[row], sizes[row]);
+            if (hashed.get(row)) {
+                System.arraycopy(hashes, row * hashBytes, copy.hashes, copied * hashBytes, hashBytes);
+                copy.hashed.set(copied);
+            }
+            if (dHashed.get(row)) {
+                copy.dHashes[copied] = dHashes[row];
+                copy.dHashed.set(copied);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Marks the rows of the given files as removed and returns them. One pass over the directory column
+     * finds every file, instead of a search per file.
+     */
+    synchronized int[] remove(Collection<Path> files) {
+        Map<Integer, Set<String>> namesByDirectory = new HashMap<>();
+        for (Path file : files) {
+            Integer directoryId = directoryIds.get(file.getParent());
+            if (directoryId != null) {
+                namesByDirectory.computeIfAbsent(directoryId, id -> new HashSet<>())
+                    .add(file.getFileName().toString());
+            }
+        }
+        int[] rows = new int[files.size()];
+        int found = 0;
+        for (int row = 0; row < rowCount && found < rows.length; row++) {
+            Set<String> fileNames = namesByDirectory.get(directoryOf[row]);
+            if (fileNames != null && !removed.get(row) && fileNames.contains(name(row))) {
+                removed.set(row);
+                rows[found++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, found);
+    }
+
+    /**
+     * Marks every row inside the given directories, at any depth, as removed and returns them. Directories are
+     * matched once each, so the row pass is a bit test per file.
+     */
+    synchronized int[] removeUnder(Collection<Path> parents) {
+        BitSet inside = new BitSet(directories.size());
+        for (int directoryId = 0; directoryId < directories.size(); directoryId++) {
+            for (Path parent : parents) {
+                if (directories.get(directoryId).startsWith(parent)) {
+                    inside.set(directoryId);
+                    break;
+                }
+            }
+        }
+        if (inside.isEmpty()) {
+            return new int[0];
+        }
+        int[] rows = new int[rowCount];
+        int found = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (inside.get(directoryOf[row]) && !removed.get(row)) {
+                removed.set(row);
+                rows[found++] = row;
+            }
+        }
+        return Arrays.copyOf(rows, found);
+    }
+
+    /** Returns rows sharing a file size with at least one other row, one ascending array per size. */
+    synchronized List<int[]> sizeGroups() {
+        int[] rows = IntStream.range(0, rowCount).filter(row -> !removed.get(row)).toArray();
+        return groupRows(rows, (first, second) -> Long.compare(sizes[first], sizes[second]));
+    }
+
+    /** Like {@link #sizeGroups()}, limited to rows whose size is one of {@code fileSizes}. */
+    synchronized List<int[]> sizeGroups(Set<Long> fileSizes) {
+        int[] rows = IntStream.range(0, rowCount)
+            .filter(row -> !removed.get(row) && fileSizes.contains(sizes[row]))
+            .toArray();
+        return groupRows(rows, (first, second) -> Long.compare(sizes[first], sizes[second]));
+    }
+
+    /** Returns the hashed rows among {@code rows} that share a content hash, one ascending array per hash. */
+    synchronized List<int[]> hashGroups(int[] rows) {
+        int[] hashedRows = Arrays.stream(rows).filter(row -> hashed.get(row) && !removed.get(row)).sorted().toArray();
+        return groupRows(hashedRows, (first, second) -> Arrays.compareUnsigned(
+            hashes, first * hashBytes, (first + 1) * hashBytes, hashes, second * hashBytes, (second + 1) * hashBytes));
+    }
+
+    private void grow(int capacity) {
+        directoryOf = Arrays.copyOf(directoryOf, capacity);
+        nameStarts = Arrays.copyOf(nameStarts, capacity + 1);
+        sizes = Arrays.copyOf(sizes, capacity);
+        hashes = Arrays.copyOf(hashes, capacity * hashBytes);
+        dHashes = Arrays.copyOf(dHashes, capacity);
+    }
+
+    /** Sorts ascending row ids by {@code order} and returns each run of two or more equal rows. */
+    private static List<int[]> groupRows(int[] rows, RowOrder order) {
+        sortRows(rows, new int[rows.length], 0, rows.length, order);
+        List<int[]> groups = new ArrayList<>();
+        int start = 0;
+        while (start < rows.length) {
+            int end = start + 1;
+            while (end < rows.length && order.compare(rows[start], rows[end]) == 0) {
+                end++;
+            }
+            if (end - start > 1) {
+                groups.add(Arrays.copyOfRange(rows, start, end));
+            }
+            start = end;
+        }
+        return groups;
+    }
+
+    /** Stable merge sort of row ids, so rows with equal keys stay in ascending order. */
+    private static void sortRows(int[] rows, int[] scratch, int from, int to, RowOrder order) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortRows(rows, scratch, from, middle, order);
+        sortRows(rows, scratch, middle, to, order);
+        if (order.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int out = from; out < to; out++) {
+            if (right >= to || (left < middle && order.compare(scratch[left], scratch[right]) <= 0)) {
+                rows[out] = scratch[left++];
+            } else {
+                rows[out] = scratch[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hash used to group files. The fast algorithm is only collision-resistant enough to group
+ * candidates, so its matches are confirmed before they are offered for deletion.
+ */
+enum HashAlgorithm {
+    SHA256("SHA-256", HashCache.SHA256, true),
+    MURMUR3_128("Murmur3-128", HashCache.MURMUR3, false);
+
+    final String displayName;
+    final byte cacheKind;
+    final boolean cryptographic;
+
+    HashAlgorithm(String displayName, byte cacheKind, boolean cryptographic) {
+        this.displayName = displayName;
+        this.cacheKind = cacheKind;
+        this.cryptographic = cryptographic;
+    }
+
+    MessageDigest newDigest() {
+        if (this == MURMUR3_128) {
+            return new Murmur3Digest();
+        }
+        try {
+            return MessageDigest.getInstance(displayName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(displayName + " is not available", e);
+        }
+    }
+
+    /** Reads -Ddff.hashAlgorithm: "fast" (default) or "paranoid" for SHA-256 throughout. */
+    static HashAlgorithm fromSystemProperties() {
+        String name = System.getProperty("dff.hashAlgorithm", "fast");
+        HashAlgorithm algorithm = forName(name);
+        if (algorithm == null) {
+            System.err.println("Unknown hash algorithm '" + name + "', using fast hashing");
+            return MURMUR3_128;
+        }
+        return algorithm;
+    }
+
+    /** Returns the algorithm for "fast"/"murmur3" or "paranoid"/"sha256", or null for anything else. */
+    static HashAlgorithm forName(String name) {
+        switch (name.toLowerCase()) {
+            case "paranoid":
+            case "sha256":
+            case "sha-256":
+                return SHA256;
+            case "fast":
+            case "murmur3":
+                return MURMUR3_128;
+            default:
+                return null;
+        }
+    }
+}
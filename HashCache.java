@@ -0,0 +1,402 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of content hashes and image dHashes, stored as an append-only record file.
+ * Entries are keyed by path and only trusted while size, last-modified time and file key still match,
+ * so an unchanged tree can be rescanned from metadata alone.
+ */
+final class HashCache {
+    static final byte SHA256 = 1;
+    static final byte SAMPLE = 3;
+    static final byte MURMUR3 = 4;
+    static final byte DHASH = 5;
+    // dHashes from the earlier full-decode, bilinear-resize algorithm; not comparable with DHASH, so skipped
+    private static final byte LEGACY_DHASH = 2;
+
+    private static final int MAGIC = 0x44464643; // "DFFC"
+    private static final int VERSION = 2;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private final Path cacheFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    private DataOutputStream output;
+    private int recordCount;
+    // Records still holding a current value; the rest of recordCount was superseded and only wastes space
+    private final AtomicInteger liveRecords = new AtomicInteger();
+    private boolean loaded;
+
+    HashCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    static HashCache fromSystemProperties() {
+        String location = System.getProperty("dff.hashCache",
+            Paths.get(System.getProperty("user.home"), ".duplicatefilefinder", "hash-cache.bin").toString());
+        return new HashCache("off".equalsIgnoreCase(location) ? null : Paths.get(location));
+    }
+
+    synchronized void load() {
+        if (loaded || cacheFile == null) {
+            loaded = true;
+            return;
+        }
+        loaded = true;
+
+        try {
+            Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+            channel = FileChannel.open(cacheFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lock = channel.tryLock();
+            if (lock == null) {
+                System.err.println("Hash cache is in use by another instance, continuing without it: " + cacheFile);
+                channel.close();
+                channel = null;
+                return;
+            }
+            readRecords();
+            if (needsCompaction()) {
+                compact();
+            } else {
+                openForAppend();
+            }
+        } catch (IOException e) {
+            System.err.println("Error opening hash cache: " + cacheFile + " - " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    String get(Path file, BasicFileAttributes attributes, byte kind) {
+        Entry entry = entries.get(file.toString());
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.matches(attributes)) {
+            if (entries.remove(file.toString(), entry)) {
+                liveRecords.addAndGet(-entry.records);
+            }
+            return null;
+        }
+        return kind == SHA256 ? entry.sha256 : entry.fastHash;
+    }
+
+    OptionalLong getDHash(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(file.toString());
+        if (entry == null || !entry.hasDHash || !entry.matches(attributes)) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(entry.dHash);
+    }
+
+    void putDHash(Path file, BasicFileAttributes attributes, long dHash) {
+        put(file, attributes, DHASH, formatDHash(dHash));
+    }
+
+    String getSample(Path file, BasicFileAttributes attributes, byte kind, int sampleSize) {
+        return getTagged(file, attributes, kind + "/" + sampleSize + ":");
+    }
+
+    void putSample(Path file, BasicFileAttributes attributes, byte kind, int sampleSize, String value) {
+        put(file, attributes, SAMPLE, kind + "/" + sampleSize + ":" + value);
+    }
+
+    /** Tree hash of a large file; stored with the samples and keyed by chunk size, as it changes with it. */
+    String getTreeHash(Path file, BasicFileAttributes attributes, byte kind, int chunkSize) {
+        return getTagged(file, attributes, kind + "/tree" + chunkSize + ":");
+    }
+
+    void putTreeHash(Path file, BasicFileAttributes attributes, byte kind, int chunkSize, String value) {
+        put(file, attributes, SAMPLE, kind + "/tree" + chunkSize + ":" + value);
+    }
+
+    private String getTagged(Path file, BasicFileAttributes attributes, String prefix) {
+        Entry entry = entries.get(file.toString());
+        if (entry == null || entry.samples == null || !entry.matches(attributes)) {
+            return null;
+        }
+        for (String sample : entry.samples.split(";")) {
+            if (sample.startsWith(prefix)) {
+                return sample.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    void put(Path file, BasicFileAttributes attributes, byte kind, String value) {
+        String path = file.toString();
+        Entry updated = entries.compute(path, (key, existing) -> merge(existing, attributes.size(),
+            attributes.lastModifiedTime().toMillis(), fileKey(attributes), kind, value));
+        append(path, updated, kind, value);
+    }
+
+    synchronized void flush() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.flush();
+            if (needsCompaction()) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing hash cache: " + cacheFile + " - " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    synchronized void close() {
+        flush();
+        closeQuietly();
+    }
+
+    private synchronized void append(String path, Entry entry, byte kind, String value) {
+        if (output == null) {
+            return;
+        }
+        try {
+            writeRecord(output, path, entry.size, entry.lastModified, entry.fileKey, kind, value);
+            recordCount++;
+        } catch (IOException e) {
+            System.err.println("Error writing hash cache: " + cacheFile + " - " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    private void readRecords() throws IOException {
+        channel.position(0);
+        long[] bytesRead = new long[1];
+        InputStream counting = new FilterInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)) {
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value >= 0) {
+                    bytesRead[0]++;
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    bytesRead[0] += count;
+                }
+                return count;
+            }
+        };
+        DataInputStream input = new DataInputStream(counting);
+        long validLength = 0;
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                System.err.println("Ignoring hash cache with unknown format: " + cacheFile);
+                channel.truncate(0);
+                return;
+            }
+            validLength = bytesRead[0];
+            while (true) {
+                byte kind = input.readByte();
+                String path = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                String fileKey = input.readUTF();
+                String value = input.readUTF();
+                recordCount++;
+                validLength = bytesRead[0];
+                if (kind == LEGACY_DHASH) {
+                    continue;
+                }
+                entries.compute(path, (key, existing) -> merge(existing, size, lastModified, fileKey, kind, value));
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // End of file, or a record cut short by an interrupted write
+        }
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+    }
+
+    /** Merges a record into an entry, counting the records it replaces as dead. */
+    private Entry merge(Entry existing, long size, long lastModified, String fileKey, byte kind, String value) {
+        Entry merged = Entry.merge(existing, size, lastModified, fileKey, kind, value);
+        liveRecords.addAndGet(merged.records - (existing != null ? existing.records : 0));
+        return merged;
+    }
+
+    /** Whether dead records, superseded by later ones or dropped as stale, outnumber the live ones. */
+    private boolean needsCompaction() {
+        return recordCount > MIN_COMPACT_RECORDS && recordCount - liveRecords.get() > liveRecords.get();
+    }
+
+    private void compact() throws IOException {
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream temp = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            temp.writeInt(MAGIC);
+            temp.writeInt(VERSION);
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                if (entry.sha256 != null) {
+                    writeRecord(temp, mapEntry.getKey(), entry.size, entry.lastModified, entry.fileKey, SHA256, entry.sha256);
+                    written++;
+                }
+                if (entry.fastHash != null) {
+                    writeRecord(temp, mapEntry.getKey(), entry.size, entry.lastModified, entry.fileKey, MURMUR3, entry.fastHash);
+                    written++;
+                }
+                if (entry.hasDHash) {
+                    writeRecord(temp, mapEntry.getKey(), entry.size, entry.lastModified, entry.fileKey, DHASH,
+                        formatDHash(entry.dHash));
+                    written++;
+                }
+                if (entry.samples != null) {
+                    for (String sample : entry.samples.split(";")) {
+                        writeRecord(temp, mapEntry.getKey(), entry.size, entry.lastModified, entry.fileKey, SAMPLE, sample);
+                        written++;
+                    }
+                }
+            }
+        }
+
+        // Windows refuses to replace a locked file, so let go of it just for the swap
+        closeQuietly();
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(cacheFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = channel.tryLock();
+        if (lock == null) {
+            System.err.println("Hash cache was taken over by another instance, continuing without it: " + cacheFile);
+            closeQuietly();
+            return;
+        }
+        recordCount = written;
+        liveRecords.set(written);
+        openForAppend();
+    }
+
+    private void openForAppend() throws IOException {
+        if (channel.size() < 8) {
+            channel.truncate(0);
+            channel.position(0);
+            output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        } else {
+            channel.position(channel.size());
+            output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (output != null) {
+                output.flush();
+            }
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing hash cache: " + cacheFile + " - " + e.getMessage());
+        }
+        output = null;
+        lock = null;
+        channel = null;
+    }
+
+    private static void writeRecord(DataOutputStream out, String path, long size, long lastModified, String fileKey,
+            byte kind, String value) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeUTF(fileKey);
+        out.writeUTF(value);
+    }
+
+    private static String formatDHash(long dHash) {
+        return String.format("%016x", dHash);
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return key != null ? key.toString() : "";
+    }
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final String sha256;
+        final String fastHash;
+        final long dHash;
+        final boolean hasDHash;
+        final String samples; // "kind/size:hash" samples and "kind/treeN:hash" tree hashes, separated by ';'
+        final int records; // One record per value held
+
+        Entry(long size, long lastModified, String fileKey, String sha256, String fastHash, long dHash,
+                boolean hasDHash, String samples) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.sha256 = sha256;
+            this.fastHash = fastHash;
+            this.dHash = dHash;
+            this.hasDHash = hasDHash;
+            this.samples = samples;
+            this.records = (sha256 != null ? 1 : 0) + (fastHash != null ? 1 : 0) + (hasDHash ? 1 : 0)
+                + (samples != null ? samples.split(";").length : 0);
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                && lastModified == attributes.lastModifiedTime().toMillis()
+                && fileKey.equals(fileKey(attributes));
+        }
+
+        static Entry merge(Entry existing, long size, long lastModified, String fileKey, byte kind, String value) {
+            // Hashes recorded against different file metadata belong to an older version of the file
+            boolean sameVersion = existing != null && existing.size == size
+                && existing.lastModified == lastModified && existing.fileKey.equals(fileKey);
+            String sha256 = sameVersion ? existing.sha256 : null;
+            String fastHash = sameVersion ? existing.fastHash : null;
+            long dHash = sameVersion ? existing.dHash : 0;
+            boolean hasDHash = sameVersion && existing.hasDHash;
+            String samples = sameVersion ? existing.samples : null;
+            if (kind == SHA256) {
+                sha256 = value;
+            } else if (kind == MURMUR3) {
+                fastHash = value;
+            } else if (kind == DHASH) {
+                dHash = Long.parseUnsignedLong(value, 16);
+                hasDHash = true;
+            } else {
+                samples = mergeSample(samples, value);
+            }
+            return new Entry(size, lastModified, fileKey, sha256, fastHash, dHash, hasDHash, samples);
+        }
+
+        private static String mergeSample(String samples, String sample) {
+            if (samples == null) {
+                return sample;
+            }
+            String prefix = sample.substring(0, sample.indexOf(':') + 1);
+            StringBuilder merged = new StringBuilder(sample);
+            for (String existing : samples.split(";")) {
+                if (!existing.startsWith(prefix)) {
+                    merged.append(';').append(existing);
+                }
+            }
+            return merged.toString();
+        }
+    }
+}
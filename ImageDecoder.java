@@ -0,0 +1,287 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Decodes images at just the resolution a perceptual hash needs. The header is read first and the image
+ * is decoded with source subsampling, or replaced by its embedded EXIF thumbnail when that has the same
+ * aspect ratio, so a 40 MP photo never has to be held in memory at full size. Readers are reused per thread.
+ * Concurrent decodes share a memory budget sized from each image header, so parallel hashing waits for room
+ * instead of exhausting the heap, and a decode that runs past the timeout is aborted.
+ */
+final class ImageDecoder {
+    // Smallest decoded width and height worth keeping; subsampling never goes below this
+    static final int MIN_DECODE_SIZE = 64;
+    // Use embedded EXIF thumbnails when they match the image (-Ddff.exifThumbnails=false to always decode)
+    static final boolean USE_EXIF_THUMBNAILS = !"false".equalsIgnoreCase(System.getProperty("dff.exifThumbnails"));
+    // Pixel memory shared by concurrent decodes (-Ddff.imageMemory=bytes, default a quarter of the heap)
+    static final long MEMORY_BUDGET = Math.max(1L << 20, Long.getLong("dff.imageMemory", Runtime.getRuntime().maxMemory() / 4));
+    // Decodes still running after this long are aborted (-Ddff.imageTimeout=milliseconds, 0 disables)
+    static final long DECODE_TIMEOUT_MILLIS = Long.getLong("dff.imageTimeout", 30000);
+
+    private static final int EXIF_SCAN_LIMIT = 128 * 1024;
+    private static final double ASPECT_TOLERANCE = 0.02;
+    private static final List<ImageReaderSpi> READER_SPIS = readerSpis();
+    private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+    private static final int BYTES_PER_PIXEL = 4;
+    // One permit per KiB of decoded pixels; fair, so a large image is not starved by a stream of small ones
+    private static final int MEMORY_PERMITS = (int) Math.min(Integer.MAX_VALUE, MEMORY_BUDGET >> 10);
+    private static final Semaphore MEMORY = new Semaphore(MEMORY_PERMITS, true);
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dff-decode-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int TIMED_OUT = 2;
+
+    private ImageDecoder() {
+    }
+
+    /** Returns the image, decoded no larger than needed to keep {@code MIN_DECODE_SIZE} pixels per side. */
+    static BufferedImage decode(Path file) throws IOException {
+        BufferedImage image = null;
+        long[] fullPixels = { -1 };
+        try {
+            image = decodeSubsampled(file, fullPixels);
+        } catch (DecodeTimeoutException | InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // Some codecs reject subsampling or partial reads; the plain path below still gets a chance
+        }
+        if (image == null) {
+            // ImageIO.read decodes at full size and cannot be aborted; without a header, reserve the whole budget
+            acquireMemory(fullPixels[0] >= 0 ? permitsFor(fullPixels[0]) : MEMORY_PERMITS);
+            try {
+                image = ImageIO.read(file.toFile());
+            } finally {
+                MEMORY.release(fullPixels[0] >= 0 ? permitsFor(fullPixels[0]) : MEMORY_PERMITS);
+            }
+        }
+        if (image == null) {
+            throw new IOException("Could not read image: " + file);
+        }
+        return image;
+    }
+
+    private static BufferedImage decodeSubsampled(Path file, long[] fullPixels) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            ImageReader reader = input != null ? readerFor(input) : null;
+            if (reader == null) {
+                return null;
+            }
+            byte[] thumbnail = USE_EXIF_THUMBNAILS && "jpeg".equalsIgnoreCase(reader.getFormatName())
+                ? exifThumbnail(input) : null;
+            try {
+                input.seek(0);
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                fullPixels[0] = (long) width * height;
+
+                if (thumbnail != null) {
+                    BufferedImage image = readThumbnail(reader, thumbnail, width, height);
+                    if (image != null) {
+                        return image;
+                    }
+                    input.seek(0);
+                    reader.setInput(input, true, true);
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.min(width, height) / MIN_DECODE_SIZE);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                long pixels = (long) ((width + step - 1) / step) * ((height + step - 1) / step);
+                return read(reader, param, pixels, file);
+            } finally {
+                reader.setInput(null);
+            }
+        }
+    }
+
+    private static BufferedImage readThumbnail(ImageReader reader, byte[] thumbnail, int width, int height) {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(thumbnail))) {
+            reader.setInput(input, true, true);
+            int thumbnailWidth = reader.getWidth(0);
+            int thumbnailHeight = reader.getHeight(0);
+            // Padded or stale thumbnails (e.g. after a crop) have a different shape and would hash differently
+            double aspect = (double) width / height;
+            double thumbnailAspect = (double) thumbnailWidth / thumbnailHeight;
+            if (Math.min(thumbnailWidth, thumbnailHeight) < Math.min(MIN_DECODE_SIZE, Math.min(width, height))
+                    || Math.abs(thumbnailAspect - aspect) > aspect * ASPECT_TOLERANCE) {
+                return null;
+            }
+            return read(reader, reader.getDefaultReadParam(), (long) thumbnailWidth * thumbnailHeight, null);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /** Reads image 0 once enough of the memory budget is free, aborting the reader if it exceeds the timeout. */
+    private static BufferedImage read(ImageReader reader, ImageReadParam param, long pixels, Path file) throws IOException {
+        int permits = permitsFor(pixels);
+        acquireMemory(permits);
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        ScheduledFuture<?> watchdog = DECODE_TIMEOUT_MILLIS > 0 ? WATCHDOG.schedule(() -> {
+            if (state.compareAndSet(RUNNING, TIMED_OUT)) {
+                reader.abort();
+            }
+        }, DECODE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) : null;
+        try {
+            BufferedImage image = reader.read(0, param);
+            if (!state.compareAndSet(RUNNING, FINISHED) && file != null) {
+                throw new DecodeTimeoutException("Decoding took longer than " + DECODE_TIMEOUT_MILLIS + " ms: " + file);
+            }
+            return state.get() == FINISHED ? image : null;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            MEMORY.release(permits);
+        }
+    }
+
+    private static int permitsFor(long pixels) {
+        // Anything larger than the whole budget runs alone rather than never
+        return (int) Math.max(1, Math.min(MEMORY_PERMITS, pixels * BYTES_PER_PIXEL >> 10));
+    }
+
+    private static void acquireMemory(int permits) throws InterruptedIOException {
+        try {
+            MEMORY.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for image memory");
+        }
+    }
+
+    /** Extracts the IFD1 JPEG thumbnail from a JPEG's APP1 Exif segment, or returns null. */
+    private static byte[] exifThumbnail(ImageInputStream input) throws IOException {
+        byte[] head = new byte[EXIF_SCAN_LIMIT];
+        input.seek(0);
+        int length = 0;
+        int read;
+        while (length < head.length && (read = input.read(head, length, head.length - length)) > 0) {
+            length += read;
+        }
+        ByteBuffer jpeg = ByteBuffer.wrap(head, 0, length).order(ByteOrder.BIG_ENDIAN);
+        if (length < 4 || jpeg.getShort(0) != (short) 0xFFD8) {
+            return null;
+        }
+
+        int position = 2;
+        while (position + 4 <= length && (head[position] & 0xFF) == 0xFF) {
+            int marker = head[position + 1] & 0xFF;
+            int segmentLength = jpeg.getShort(position + 2) & 0xFFFF;
+            if (marker == 0xDA || marker == 0xD9 || segmentLength < 2) {
+                return null; // Image data starts; Exif always comes before it
+            }
+            int data = position + 4;
+            if (marker == 0xE1 && data + 6 <= length
+                    && head[data] == 'E' && head[data + 1] == 'x' && head[data + 2] == 'i' && head[data + 3] == 'f') {
+                int tiffStart = data + 6;
+                int tiffEnd = Math.min(length, position + 2 + segmentLength);
+                return tiffEnd > tiffStart ? ifd1Thumbnail(ByteBuffer.wrap(head, tiffStart, tiffEnd - tiffStart).slice()) : null;
+            }
+            position += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static byte[] ifd1Thumbnail(ByteBuffer tiff) {
+        try {
+            if (tiff.getShort(0) == 0x4949) {
+                tiff.order(ByteOrder.LITTLE_ENDIAN);
+            } else if (tiff.getShort(0) != 0x4D4D) {
+                return null;
+            }
+            int ifd0 = tiff.getInt(4);
+            int ifd1 = tiff.getInt(ifd0 + 2 + 12 * (tiff.getShort(ifd0) & 0xFFFF));
+            if (ifd1 <= 0) {
+                return null;
+            }
+            int entries = tiff.getShort(ifd1) & 0xFFFF;
+            int offset = -1;
+            int size = -1;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd1 + 2 + 12 * i;
+                int tag = tiff.getShort(entry) & 0xFFFF;
+                if (tag == 0x0201) {
+                    offset = tiff.getInt(entry + 8);
+                } else if (tag == 0x0202) {
+                    size = tiff.getInt(entry + 8);
+                }
+            }
+            if (offset <= 0 || size <= 0 || offset + size > tiff.capacity()) {
+                return null;
+            }
+            byte[] thumbnail = new byte[size];
+            tiff.position(offset);
+            tiff.get(thumbnail);
+            return thumbnail;
+        } catch (IndexOutOfBoundsException e) {
+            return null; // Truncated or malformed Exif data
+        }
+    }
+
+    /**
+     * Finds a reader for the stream without {@code ImageIO.getImageReaders}, which instantiates a new reader
+     * on every call; each thread keeps one reader per format and resets it between files.
+     */
+    private static ImageReader readerFor(ImageInputStream input) throws IOException {
+        for (ImageReaderSpi spi : READER_SPIS) {
+            if (spi.canDecodeInput(input)) {
+                Map<ImageReaderSpi, ImageReader> readers = READERS.get();
+                ImageReader reader = readers.get(spi);
+                if (reader == null) {
+                    reader = spi.createReaderInstance();
+                    readers.put(spi, reader);
+                }
+                return reader;
+            }
+        }
+        return null;
+    }
+
+    private static List<ImageReaderSpi> readerSpis() {
+        List<ImageReaderSpi> spis = new ArrayList<>();
+        Iterator<ImageReaderSpi> iterator = IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true);
+        while (iterator.hasNext()) {
+            spis.add(iterator.next());
+        }
+        return spis;
+    }
+
+    private static final class DecodeTimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DecodeTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
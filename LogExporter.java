@@ -0,0 +1,167 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the file log straight from the scan data through a buffered writer, one file at a time, so exporting
+ * millions of files never builds the report in memory. The format follows the file extension: {@code .csv},
+ * {@code .json} or plain text, each optionally gzip-compressed with a trailing {@code .gz}.
+ */
+final class LogExporter {
+    enum Format {
+        TEXT, CSV, JSON
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private LogExporter() {
+    }
+
+    static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".gz");
+    }
+
+    static Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".csv")) {
+            return Format.CSV;
+        }
+        if (name.endsWith(".json")) {
+            return Format.JSON;
+        }
+        return Format.TEXT;
+    }
+
+    /** Writes {@code log} to {@code target} in the format its name asks for, reporting progress as it goes. */
+    static void export(FileLogModel.Snapshot log, Path target, Consumer<String> progress) throws IOException {
+        Format format = formatOf(target);
+        try (OutputStream file = Files.newOutputStream(target);
+             OutputStream out = isCompressed(target) ? new GZIPOutputStream(file, BUFFER_SIZE) : file;
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            switch (format) {
+                case CSV:
+                    writeCsv(log, writer, progress);
+                    break;
+                case JSON:
+                    writeJson(log, writer, progress);
+                    break;
+                default:
+                    writeText(log, writer, progress);
+            }
+        }
+    }
+
+    private static void writeText(FileLogModel.Snapshot log, Writer writer, Consumer<String> progress)
+            throws IOException {
+        for (String line : log.header) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        for (int position = 0; position < log.fileCount(); position++) {
+            writer.write(log.line(position));
+            writer.write('\n');
+            reportProgress(position, log, progress);
+        }
+    }
+
+    private static void writeCsv(FileLogModel.Snapshot log, Writer writer, Consumer<String> progress)
+            throws IOException {
+        writer.write("number,status,name,hash,dhash,size,path\r\n");
+        for (int position = 0; position < log.fileCount(); position++) {
+            String hash = log.hash(position);
+            String dHash = log.dHash(position);
+            writer.write(Integer.toString(position + 1));
+            writer.write(',');
+            writer.write(log.status(position));
+            writer.write(',');
+            writer.write(csvField(log.name(position)));
+            writer.write(',');
+            writer.write(hash != null ? hash : "");
+            writer.write(',');
+            writer.write(dHash != null ? dHash : "");
+            writer.write(',');
+            writer.write(Long.toString(log.size(position)));
+            writer.write(',');
+            writer.write(csvField(log.path(position).toString()));
+            writer.write("\r\n");
+            reportProgress(position, log, progress);
+        }
+    }
+
+    private static void writeJson(FileLogModel.Snapshot log, Writer writer, Consumer<String> progress)
+            throws IOException {
+        writer.write("{\"generated\":" + jsonString(log.generated) + ",\"hashAlgorithm\":" + jsonString(log.hashName)
+            + ",\"totals\":{\"files\":" + log.fileCount() + ",\"checked\":" + log.checkedCount()
+            + ",\"unchecked\":" + log.uncheckedCount() + ",\"unique\":" + log.uniqueCount() + "},\"files\":[");
+        for (int position = 0; position < log.fileCount(); position++) {
+            String hash = log.hash(position);
+            String dHash = log.dHash(position);
+            writer.write(position == 0 ? "\n" : ",\n");
+            writer.write("{\"number\":" + (position + 1) + ",\"status\":\"" + log.status(position) + "\",\"name\":"
+                + jsonString(log.name(position)) + ",\"hash\":" + (hash != null ? jsonString(hash) : "null")
+                + ",\"dhash\":" + (dHash != null ? jsonString(dHash) : "null") + ",\"size\":" + log.size(position)
+                + ",\"path\":" + jsonString(log.path(position).toString()) + "}");
+            reportProgress(position, log, progress);
+        }
+        writer.write("\n]}\n");
+    }
+
+    private static void reportProgress(int position, FileLogModel.Snapshot log, Consumer<String> progress) {
+        int written = position + 1;
+        if (written % PROGRESS_INTERVAL == 0 || written == log.fileCount()) {
+            progress.accept(String.format("Exporting log... (%d/%d files)", written, log.fileCount()));
+        }
+    }
+
+    /** Quotes a CSV field as in RFC 4180 when it contains a separator, quote or line break. */
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** Returns {@code value} as a JSON string literal. */
+    static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,144 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * MurmurHash3 x64 128-bit (seed 0) exposed as a {@link MessageDigest}, so it can be fed by the same
+ * channel-based hashing code as SHA-256. Not cryptographic: collisions must be confirmed before acting on them.
+ * Output bytes match the common little-endian encoding of (h1, h2).
+ */
+final class Murmur3Digest extends MessageDigest {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+    private long h1;
+    private long h2;
+    private long length;
+
+    Murmur3Digest() {
+        super("Murmur3-128");
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        pending.put(input);
+        length++;
+        if (!pending.hasRemaining()) {
+            mixBlock(pending.getLong(0), pending.getLong(8));
+            pending.clear();
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        engineUpdate(ByteBuffer.wrap(input, offset, len));
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        length += input.remaining();
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && input.hasRemaining()) {
+                pending.put(input.get());
+            }
+            if (pending.hasRemaining()) {
+                return;
+            }
+            mixBlock(pending.getLong(0), pending.getLong(8));
+            pending.clear();
+        }
+
+        // Read whole blocks with absolute little-endian gets, leaving the caller's byte order alone
+        ByteBuffer blocks = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = input.position();
+        int blockEnd = position + (input.remaining() & ~15);
+        for (; position < blockEnd; position += 16) {
+            mixBlock(blocks.getLong(position), blocks.getLong(position + 8));
+        }
+        input.position(position);
+        while (input.hasRemaining()) {
+            pending.put(input.get());
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        int tail = pending.position();
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = tail - 1; i >= 8; i--) {
+            k2 ^= (pending.get(i) & 0xffL) << ((i - 8) * 8);
+        }
+        for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+            k1 ^= (pending.get(i) & 0xffL) << (i * 8);
+        }
+        if (tail > 8) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (tail > 0) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        byte[] result = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(h1).putLong(h2).array();
+        engineReset();
+        return result;
+    }
+
+    @Override
+    protected void engineReset() {
+        pending.clear();
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+    }
+
+    private void mixBlock(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk progress of a scan, so an interrupted run over the same roots continues where it stopped. Each
+ * directory the walk has listed is appended as one record: its modification time, the names of its files,
+ * and its subdirectories. A resumed walk replays a directory's entries from its record instead of listing
+ * it, as long as the directory's modification time is unchanged, which is the case unless entries were
+ * added, removed or renamed. Editing a file leaves its directory's time alone, so replayed files are still
+ * stat'ed for their current size and modification time. Hashes need no record of their own: they are in the
+ * hash cache, which is flushed at every checkpoint, so with the hash cache off only the walk is resumed. The
+ * file is binary with names relative to their directory; a record cut short by a crash is dropped when the
+ * file is read back.
+ */
+final class ScanCheckpoint implements Closeable {
+    /** A directory as it was listed. */
+    static final class Listing {
+        final long modified;
+        final String[] fileNames;
+        final String[] subdirectories;
+
+        Listing(long modified, String[] fileNames, String[] subdirectories) {
+            this.modified = modified;
+            this.fileNames = fileNames;
+            this.subdirectories = subdirectories;
+        }
+    }
+
+    private static final int MAGIC = 0x4446464B; // "DFFK"
+    // Version 1 also recorded each file's size and modification time, which could be out of date on resume
+    private static final int VERSION = 2;
+    private static final byte DIRECTORY = 1;
+
+    private final Path file;
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private DataOutputStream output;
+
+    private ScanCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /** Directory holding checkpoints (-Ddff.checkpoint=DIR), or null when checkpoints are off. */
+    static Path directoryFromSystemProperties() {
+        String location = System.getProperty("dff.checkpoint",
+            Paths.get(System.getProperty("user.home"), ".duplicatefilefinder", "checkpoints").toString());
+        return "off".equalsIgnoreCase(location) ? null : Paths.get(location);
+    }
+
+    /** The checkpoint file for a set of roots, named by a hash of the roots, or null when checkpoints are off. */
+    static Path fileFor(List<Path> roots) {
+        Path directory = directoryFromSystemProperties();
+        if (directory == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Path root : roots) {
+                digest.update(root.toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return directory.resolve(FileHasher.toHex(digest.digest()).substring(0, 16) + ".ckpt");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Opens the checkpoint for {@code roots}. With {@code resume}, the listings of an earlier run are loaded
+     * and kept; otherwise any earlier checkpoint is discarded. Returns null when checkpoints are off.
+     */
+    static ScanCheckpoint open(List<Path> roots, boolean resume) throws IOException {
+        Path file = fileFor(roots);
+        if (file == null) {
+            return null;
+        }
+        ScanCheckpoint checkpoint = new ScanCheckpoint(file);
+        if (resume && Files.exists(file)) {
+            checkpoint.read(roots);
+        }
+        checkpoint.rewrite(roots);
+        return checkpoint;
+    }
+
+    /** The recorded listing of {@code directory}, if an earlier run got that far. */
+    Listing listing(Path directory) {
+        return listings.get(directory);
+    }
+
+    int resumedDirectories() {
+        return listings.size();
+    }
+
+    synchronized void directoryListed(Path directory, Listing listing) {
+        if (output == null) {
+            return;
+        }
+        try {
+            writeListing(output, directory, listing);
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + file + " - " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /** Forces what was recorded so far to disk, so it survives a crash or power loss. */
+    synchronized void flush() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error writing checkpoint: " + file + " - " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /** Closes the file and keeps it, for the next run to resume from. */
+    @Override
+    public synchronized void close() {
+        flush();
+        closeQuietly();
+    }
+
+    /** Closes and removes the file once the scan it belongs to has completed. */
+    synchronized void delete() {
+        closeQuietly();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Error deleting checkpoint: " + file + " - " + e.getMessage());
+        }
+    }
+
+    private void read(List<Path> roots) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !readRoots(in).equals(roots)) {
+                return;
+            }
+            while (in.read() == DIRECTORY) {
+                Path directory = Paths.get(in.readUTF());
+                long modified = in.readLong();
+                int fileCount = in.readInt();
+                String[] fileNames = new String[fileCount];
+                for (int i = 0; i < fileCount; i++) {
+                    fileNames[i] = in.readUTF();
+                }
+                String[] subdirectories = new String[in.readInt()];
+                for (int i = 0; i < subdirectories.length; i++) {
+                    subdirectories[i] = in.readUTF();
+                }
+                listings.put(directory, new Listing(modified, fileNames, subdirectories));
+            }
+        } catch (EOFException e) {
+            // The last record was cut short by the interruption; the ones before it are complete
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Error reading checkpoint: " + file + " - " + e.getMessage());
+        }
+    }
+
+    private static List<Path> readRoots(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            roots.add(Paths.get(in.readUTF()));
+        }
+        return roots;
+    }
+
+    /** Starts a fresh file holding the loaded listings, which also drops a damaged tail, then appends to it. */
+    private void rewrite(List<Path> roots) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(roots.size());
+            for (Path root : roots) {
+                out.writeUTF(root.toString());
+            }
+            for (Map.Entry<Path, Listing> listing : listings.entrySet()) {
+                writeListing(out, listing.getKey(), listing.getValue());
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    private static void writeListing(DataOutputStream out, Path directory, Listing listing) throws IOException {
+        out.writeByte(DIRECTORY);
+        out.writeUTF(directory.toString());
+        out.writeLong(listing.modified);
+        out.writeInt(listing.fileNames.length);
+        for (String fileName : listing.fileNames) {
+            out.writeUTF(fileName);
+        }
+        out.writeInt(listing.subdirectories.length);
+        for (String subdirectory : listing.subdirectories) {
+            out.writeUTF(subdirectory);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (output != null) {
+                output.close();
+            }
+        } catch (IOException e) {
+            // Nothing more to save
+        }
+        output = null;
+        channel = null;
+    }
+}
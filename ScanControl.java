@@ -0,0 +1,63 @@
+/**
+ * Cooperative pause and cancel for a running scan. The scan thread calls {@link #check()} between steps and
+ * worker tasks call {@link #proceed()} before each file or directory, so pausing lets the files in flight
+ * finish and then holds every thread, and cancelling stops the scan at the next file instead of killing it
+ * mid-write. Both can be requested from any thread.
+ */
+final class ScanControl {
+    private boolean paused;
+    private boolean cancelled;
+
+    synchronized void pause() {
+        paused = true;
+    }
+
+    synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    synchronized boolean isPaused() {
+        return paused && !cancelled;
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Clears a pause or cancellation, so the next run starts fresh. */
+    synchronized void reset() {
+        paused = false;
+        cancelled = false;
+        notifyAll();
+    }
+
+    /** Waits while paused; throws once the scan is cancelled, which ends it like an interrupt. */
+    synchronized void check() throws InterruptedException {
+        while (paused && !cancelled) {
+            wait();
+        }
+        if (cancelled) {
+            throw new InterruptedException("Scan cancelled");
+        }
+    }
+
+    /** For worker tasks: waits while paused, then returns whether the task should go on. */
+    boolean proceed() {
+        try {
+            check();
+            return true;
+        } catch (InterruptedException e) {
+            if (!isCancelled()) {
+                // A real interrupt, e.g. the pool shutting down; keep it for the code above
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,1547 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * The duplicate scan itself, independent of any user interface: walks the roots, finds exact duplicates
+ * through size grouping, sampling, hashing and confirmation, then clusters visually similar images.
+ * Progress and each confirmed group are reported to a {@link Listener} as soon as they are known, so the
+ * GUI and the command line share the same engine. Every phase records its counters and timers in
+ * {@link #metrics()}. A scan can be paused or cancelled through {@link #control()}; it keeps a
+ * {@link ScanCheckpoint} and flushes the hash cache as it goes, so a cancelled or crashed scan of the same
+ * roots resumes instead of starting over.
+ */
+final class ScanEngine {
+    interface Listener {
+        void progress(String message);
+
+        /** Called once per confirmed exact-duplicate group, possibly from worker threads. */
+        default void exactDuplicates(String hash, long size, List<Path> files) {
+        }
+
+        /** Called once per group of visually similar images. */
+        default void visualDuplicates(String dHash, List<Path> files) {
+        }
+
+        /** Called when live changes dissolve or re-key a group reported earlier. */
+        default void groupRemoved(String key) {
+        }
+
+        /** Called once per pair of large files found to share much of their content, largest share first. */
+        default void partialDuplicates(PartialDuplicate pair) {
+        }
+    }
+
+    /** Two files that share part of their content, as estimated from their content-defined chunks. */
+    static final class PartialDuplicate {
+        final Path first;
+        final Path second;
+        final long sharedBytes;
+        // Shared bytes as a fraction of the smaller file
+        final double fraction;
+
+        PartialDuplicate(Path first, Path second, long sharedBytes, double fraction) {
+            this.first = first;
+            this.second = second;
+            this.sharedBytes = sharedBytes;
+            this.fraction = fraction;
+        }
+    }
+
+    private static final int WALK_PROGRESS_INTERVAL = 1000;
+    private static final int PROGRESS_INTERVAL = 100;
+    // Files replaced per journal batch; the journal is forced to disk once per batch rather than per file
+    private static final int LINK_BATCH_SIZE = 1024;
+    // Most chunks of each large file read between comparisons; the first rounds read fewer, so files that
+    // differ early stop early
+    private static final int MAX_CHUNK_WINDOW = 16;
+    // Removed rows a live update lets build up before the file table is compacted, as long as they are also
+    // the majority
+    private static final int MIN_COMPACT_ROWS = 4096;
+    // Content-defined chunks of one file handed to the chunk index at a time
+    private static final int CHUNK_BATCH = 8192;
+    // Set by the cached hash functions when the value came from the hash cache, so the file was not read
+    private static final ThreadLocal<boolean[]> CACHE_HIT = ThreadLocal.withInitial(() -> new boolean[1]);
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(
+        ".jpg", ".jpeg", ".png", ".gif", ".bmp", ".tiff", ".tif", ".webp"
+    );
+
+    private final ScanSettings settings;
+    private final HashCache hashCache = HashCache.fromSystemProperties();
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final ScanControl control = new ScanControl();
+    // Every scanned file with its size, content hash and image dHash, addressed by row id; each scan starts a
+    // new table, so one handed out by files() for display or export is never cleared under its reader
+    private volatile FileTable fileTable;
+    // Runs of computeMissingHashes in progress; they address rows by id, so the table is not compacted meanwhile
+    private int backgroundHashing;
+    private final Map<Path, Object> directoryStores = new ConcurrentHashMap<>();
+    private final Map<Object, Semaphore> storeSemaphores = new ConcurrentHashMap<>();
+    private final Map<Object, Integer> storeReaders = new ConcurrentHashMap<>();
+    private volatile Map<String, List<Path>> exactDuplicates = Collections.emptyMap();
+    private volatile Map<String, List<Path>> visualDuplicates = Collections.emptyMap();
+    private volatile List<Path> roots = Collections.emptyList();
+    // Size of each group's first member, recorded from scan data so the results need no further stat calls
+    private final Map<String, Long> groupSizes = new ConcurrentHashMap<>();
+    // Chunk digests of the large files being compared chunk by chunk; null where reading stopped
+    private final Map<Path, byte[][]> chunkHashes = new ConcurrentHashMap<>();
+    private volatile List<PartialDuplicate> partialDuplicates = Collections.emptyList();
+    private volatile long blockSavings;
+
+    ScanEngine(ScanSettings settings) {
+        this.settings = settings;
+        this.fileTable = new FileTable(settings.hashAlgorithm.newDigest().getDigestLength());
+    }
+
+    ScanSettings settings() {
+        return settings;
+    }
+
+    FileTable files() {
+        return fileTable;
+    }
+
+    /** Per-phase counters and timers of the last scan, including live updates since. */
+    ScanMetrics metrics() {
+        return metrics;
+    }
+
+    /** Pauses or cancels the scan in progress; a cancelled scan ends with an {@link InterruptedException}. */
+    ScanControl control() {
+        return control;
+    }
+
+    /** Whether an earlier scan of {@code roots} was interrupted and left a checkpoint to resume from. */
+    static boolean hasCheckpoint(List<Path> roots) {
+        Path checkpoint = ScanCheckpoint.fileFor(distinctRoots(roots));
+        return checkpoint != null && Files.exists(checkpoint);
+    }
+
+    /** Exact-duplicate groups from the last scan, keyed by content hash. */
+    Map<String, List<Path>> exactDuplicates() {
+        return exactDuplicates;
+    }
+
+    /** Visually similar image groups from the last scan, keyed by the first member's dHash. */
+    Map<String, List<Path>> visualDuplicates() {
+        return visualDuplicates;
+    }
+
+    /** Pairs of large files sharing much of their content, from the last scan with the partial analysis on. */
+    List<PartialDuplicate> partialDuplicates() {
+        return partialDuplicates;
+    }
+
+    /**
+     * Bytes that block-level deduplication of the large files would reclaim beyond the exact duplicates,
+     * estimated by the last scan with the partial analysis on.
+     */
+    long blockSavings() {
+        return blockSavings;
+    }
+
+    /** The directories of the last scan, absolute and without nested roots. */
+    List<Path> roots() {
+        return roots;
+    }
+
+    /** Size in bytes of the first file of a group from the last scan, or -1 if the key is unknown. */
+    long groupSize(String key) {
+        Long size = groupSizes.get(key);
+        return size == null ? -1 : size;
+    }
+
+    /**
+     * Scans the given directories, replacing the results of any previous scan. Roots nested inside another
+     * root are scanned once. A live update still in progress finishes first. An interrupted earlier scan of
+     * the same roots is resumed.
+     */
+    void scan(List<Path> roots, Listener listener) throws IOException, InterruptedException {
+        scan(roots, listener, true);
+    }
+
+    /**
+     * Like {@link #scan(List, Listener)}; with {@code resume} false, the checkpoint of an interrupted earlier
+     * scan is discarded and every directory is read again.
+     */
+    synchronized void scan(List<Path> roots, Listener listener, boolean resume)
+            throws IOException, InterruptedException {
+        fileTable = new FileTable(fileTable.hashBytes()); // Drop previous files, hashes and dHashes
+        exactDuplicates = Collections.emptyMap();
+        visualDuplicates = Collections.emptyMap();
+        groupSizes.clear();
+        partialDuplicates = Collections.emptyList();
+        blockSavings = 0;
+        metrics.reset();
+        control.reset();
+        hashCache.load();
+        listener.progress("Scanning files in directory...");
+        this.roots = distinctRoots(roots);
+        ScanCheckpoint checkpoint = ScanCheckpoint.open(this.roots, resume);
+        if (checkpoint != null && checkpoint.resumedDirectories() > 0) {
+            listener.progress(String.format("Resuming interrupted scan (%d directories already listed)...",
+                checkpoint.resumedDirectories()));
+        }
+        // Save progress periodically, so even a crash or power loss only costs the last interval
+        ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dff-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(() -> {
+            if (checkpoint != null) {
+                checkpoint.flush();
+            }
+            hashCache.flush();
+        }, settings.checkpointIntervalSeconds, settings.checkpointIntervalSeconds, TimeUnit.SECONDS);
+        boolean completed = false;
+        try {
+            scanRoots(checkpoint, listener);
+            completed = true;
+        } finally {
+            saver.shutdownNow();
+            saver.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (checkpoint != null) {
+                if (completed) {
+                    checkpoint.delete();
+                } else {
+                    checkpoint.close();
+                }
+            }
+            hashCache.flush();
+            // A cancellation only ends this scan; live updates and linking afterwards run normally
+            control.reset();
+        }
+    }
+
+    private void scanRoots(ScanCheckpoint checkpoint, Listener listener) throws IOException, InterruptedException {
+        List<int[]> sizeGroups = groupFilesBySize(this.roots, checkpoint, listener::progress);
+        control.check();
+
+        listener.progress(String.format("Found %d files. Analyzing for duplicates...", fileTable.size()));
+
+        // Hash every file on the worker pool; only multi-member size groups can yield duplicates
+        Map<String, List<Path>> duplicates = groupFilesByHash(sizeGroups, listener);
+        exactDuplicates = duplicates;
+        control.check();
+
+        if (settings.findVisualDuplicates) {
+            // Phase 2: Visual duplicate detection for images (excluding those already in exact duplicates)
+            listener.progress("Analyzing images for visual similarity...");
+
+            // Get all files already in exact duplicate groups
+            Set<String> exactDuplicateFiles = new HashSet<>();
+            for (List<Path> files : duplicates.values()) {
+                for (Path file : files) {
+                    exactDuplicateFiles.add(file.toString());
+                }
+            }
+
+            // Filter image files, excluding those already found as exact duplicates
+            int[] imageRows = imageRowsOutside(exactDuplicateFiles);
+
+            if (imageRows.length > 0) {
+                visualDuplicates = findVisualDuplicates(imageRows, listener);
+                listener.progress(String.format("Found %d visual duplicate groups", visualDuplicates.size()));
+            }
+        }
+
+        if (settings.findPartialDuplicates) {
+            control.check();
+            findPartialDuplicates(listener);
+        }
+    }
+
+    boolean hasMissingHashes() {
+        FileTable table = fileTable;
+        for (int row = 0; row < table.size(); row++) {
+            if (!table.hasHash(row) && !table.isRemoved(row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Hashes every scanned file that the scan left without a content hash. */
+    void computeMissingHashes(int priority, Consumer<String> progress) throws InterruptedException {
+        synchronized (this) {
+            backgroundHashing++;
+        }
+        try {
+            int[] pending = IntStream.range(0, fileTable.size())
+                .filter(row -> !fileTable.hasHash(row) && !fileTable.isRemoved(row))
+                .toArray();
+            hashRows(pending, ScanMetrics.Phase.FULL_HASH, Long.MAX_VALUE, this::calculateCachedFileHash,
+                fileTable::setHash, priority, "Hashing files", progress);
+            hashCache.flush();
+        } finally {
+            synchronized (this) {
+                backgroundHashing--;
+            }
+        }
+    }
+
+    /**
+     * Brings the results up to date with paths that were created, modified or deleted since the scan, as
+     * reported by a {@link DirectoryWatcher}. Rows at or under each path are dropped and whatever exists there
+     * now is read again as new rows; then only the size buckets those rows fall into are hashed and regrouped,
+     * and images are reclustered if any image changed. Groups that appear or change are reported to the
+     * listener, and groups that disappear through {@link Listener#groupRemoved}. Returns whether any file was
+     * added or removed.
+     */
+    synchronized boolean applyChanges(Collection<Path> changedPaths, Listener listener)
+            throws InterruptedException {
+        List<Path> changed = distinctRoots(new ArrayList<>(changedPaths));
+        Set<Long> affectedSizes = new HashSet<>();
+        boolean imagesChanged = false;
+        int[] removedRows = IntStream.concat(IntStream.of(fileTable.remove(changed)),
+            IntStream.of(fileTable.removeUnder(changed))).toArray();
+        for (int row : removedRows) {
+            affectedSizes.add(fileTable.fileSize(row));
+            imagesChanged |= isImageFile(fileTable.name(row));
+        }
+
+        int firstNewRow = fileTable.size();
+        List<Path> directories = new ArrayList<>();
+        for (Path path : changed) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    // Like the walk: links to regular files count, links to directories are not followed
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        fileTable.add(path, attributes);
+                    }
+                } else if (attributes.isDirectory()) {
+                    directories.add(path);
+                } else if (attributes.isRegularFile()) {
+                    fileTable.add(path, attributes);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted, or renamed away before the event was handled
+            } catch (IOException e) {
+                System.err.println("Error checking file: " + path + " - " + e.getMessage());
+            }
+        }
+        if (!directories.isEmpty()) {
+            metrics.begin(ScanMetrics.Phase.WALK, 0, 0);
+            try {
+                new DirectoryWalker(settings.walkThreads, metrics, control, fileTable::add).walk(directories);
+            } finally {
+                metrics.end(ScanMetrics.Phase.WALK);
+            }
+        }
+        int addedRows = fileTable.size() - firstNewRow;
+        for (int row = firstNewRow; row < fileTable.size(); row++) {
+            affectedSizes.add(fileTable.fileSize(row));
+            imagesChanged |= isImageFile(fileTable.name(row));
+        }
+        if (removedRows.length == 0 && addedRows == 0) {
+            return false;
+        }
+        listener.progress(String.format("Live update: %d files removed, %d files added",
+            removedRows.length, addedRows));
+
+        // Only groups in the affected size buckets can have changed; every other group is kept as it is
+        Map<String, List<Path>> previousExact = exactDuplicates;
+        Set<String> affectedKeys = new HashSet<>();
+        for (String key : previousExact.keySet()) {
+            if (affectedSizes.contains(groupSizes.get(key))) {
+                affectedKeys.add(key);
+                groupSizes.remove(key);
+            }
+        }
+        Listener progressOnly = listener::progress;
+        Map<String, List<Path>> regrouped = groupFilesByHash(fileTable.sizeGroups(affectedSizes), progressOnly);
+        Map<String, List<Path>> exact = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Path>> group : previousExact.entrySet()) {
+            if (!affectedKeys.contains(group.getKey())) {
+                exact.put(group.getKey(), group.getValue());
+            } else if (regrouped.containsKey(group.getKey())) {
+                exact.put(group.getKey(), regrouped.get(group.getKey()));
+            }
+        }
+        for (Map.Entry<String, List<Path>> group : regrouped.entrySet()) {
+            exact.putIfAbsent(group.getKey(), group.getValue());
+        }
+        exactDuplicates = exact;
+        reportChanges(previousExact, exact, listener, true);
+
+        if (settings.findVisualDuplicates && (imagesChanged || !exact.keySet().equals(previousExact.keySet()))) {
+            Map<String, List<Path>> previousVisual = visualDuplicates;
+            for (String key : previousVisual.keySet()) {
+                groupSizes.remove(key);
+            }
+            Set<String> exactDuplicateFiles = new HashSet<>();
+            for (List<Path> files : exact.values()) {
+                for (Path file : files) {
+                    exactDuplicateFiles.add(file.toString());
+                }
+            }
+            // Images hashed before keep their dHash, so only new images are decoded
+            visualDuplicates = findVisualDuplicates(imageRowsOutside(exactDuplicateFiles), progressOnly);
+            reportChanges(previousVisual, visualDuplicates, listener, false);
+        }
+
+        // Every change leaves removed rows behind; a long watch would otherwise grow the table without bound
+        int removedCount = fileTable.removedCount();
+        if (backgroundHashing == 0 && removedCount > MIN_COMPACT_ROWS && removedCount > fileTable.size() / 2) {
+            fileTable = fileTable.compacted();
+        }
+        hashCache.flush();
+        return true;
+    }
+
+    private void reportChanges(Map<String, List<Path>> previous, Map<String, List<Path>> current,
+            Listener listener, boolean exact) {
+        for (String key : previous.keySet()) {
+            if (!current.containsKey(key)) {
+                listener.groupRemoved(key);
+            }
+        }
+        for (Map.Entry<String, List<Path>> group : current.entrySet()) {
+            if (!group.getValue().equals(previous.get(group.getKey()))) {
+                if (exact) {
+                    listener.exactDuplicates(group.getKey(), groupSize(group.getKey()), group.getValue());
+                } else {
+                    listener.visualDuplicates(group.getKey(), group.getValue());
+                }
+            }
+        }
+    }
+
+    /** Rows of live image files whose path is not in {@code excludedFiles}. */
+    private int[] imageRowsOutside(Set<String> excludedFiles) {
+        return IntStream.range(0, fileTable.size())
+            .filter(row -> !fileTable.isRemoved(row) && isImageFile(fileTable.name(row))
+                && !excludedFiles.contains(fileTable.path(row).toString()))
+            .toArray();
+    }
+
+    /**
+     * Drops files deleted since the scan from the results without rescanning: their rows are marked removed,
+     * they leave their groups, and groups left with a single member are dissolved.
+     */
+    synchronized void removeFiles(Collection<Path> deletedFiles) {
+        if (deletedFiles.isEmpty()) {
+            return;
+        }
+        fileTable.remove(deletedFiles);
+        ungroupFiles(deletedFiles);
+    }
+
+    /** Takes files out of their duplicate groups while keeping them in the scanned file list. */
+    synchronized void ungroupFiles(Collection<Path> files) {
+        Set<Path> ungrouped = new HashSet<>(files);
+        exactDuplicates = withoutFiles(exactDuplicates, ungrouped);
+        visualDuplicates = withoutFiles(visualDuplicates, ungrouped);
+    }
+
+    /**
+     * Replaces each key of {@code targets} with a hard link to, or a clone of, its value. Replacements run on
+     * the worker pool in journaled batches, with reads limited per storage device like hashing. Files that were
+     * replaced are taken out of their groups, since they no longer use space of their own.
+     */
+    FileLinker.Result linkDuplicates(Map<Path, Path> targets, FileLinker.Mode mode, Consumer<String> progress)
+            throws IOException, InterruptedException {
+        FileLinker linker = new FileLinker(FileLinker.journalFromSystemProperties(), mode);
+        FileLinker.Result result = new FileLinker.Result();
+        List<Path> duplicates = new ArrayList<>(targets.keySet());
+        linker.open();
+        for (int start = 0; start < duplicates.size(); start += LINK_BATCH_SIZE) {
+            List<Path> batch = duplicates.subList(start, Math.min(start + LINK_BATCH_SIZE, duplicates.size()));
+            linker.beginBatch(batch);
+            runPerDevice(batch, Thread.NORM_PRIORITY, "Linking duplicates", "files", message -> {
+            }, duplicate -> {
+                Semaphore ioPermits = storeSemaphore(duplicate);
+                try {
+                    ioPermits.acquire();
+                    try {
+                        linker.replace(duplicate, targets.get(duplicate), result);
+                    } finally {
+                        ioPermits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            linker.commitBatch();
+            progress.accept(String.format("Replacing duplicates with %ss... (%d/%d files)",
+                mode.displayName, start + batch.size(), duplicates.size()));
+        }
+        linker.close();
+        ungroupFiles(result.linkedFiles);
+        return result;
+    }
+
+    private Map<String, List<Path>> withoutFiles(Map<String, List<Path>> groups, Set<Path> deleted) {
+        // Keep the existing group order, so the results do not reshuffle after a deletion
+        Map<String, List<Path>> remaining = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Path>> group : groups.entrySet()) {
+            List<Path> members = new ArrayList<>(group.getValue());
+            members.removeAll(deleted);
+            if (members.size() > 1) {
+                remaining.put(group.getKey(), Collections.synchronizedList(members));
+            } else {
+                groupSizes.remove(group.getKey());
+            }
+        }
+        return remaining;
+    }
+
+    static String formatFileSize(long size) {
+        if (size < 0) return "Unknown size";
+        if (size < 1024) return size + " bytes";
+        if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
+        if (size < 1024 * 1024 * 1024) return String.format("%.1f MB", size / (1024.0 * 1024.0));
+        return String.format("%.1f GB", size / (1024.0 * 1024.0 * 1024.0));
+    }
+
+    private static List<Path> distinctRoots(List<Path> roots) {
+        List<Path> normalized = new ArrayList<>();
+        for (Path root : roots) {
+            Path candidate = root.toAbsolutePath().normalize();
+            if (!normalized.contains(candidate)) {
+                normalized.add(candidate);
+            }
+        }
+        List<Path> distinct = new ArrayList<>();
+        for (Path root : normalized) {
+            boolean nested = false;
+            for (Path other : normalized) {
+                if (!other.equals(root) && root.startsWith(other)) {
+                    nested = true;
+                }
+            }
+            if (!nested) {
+                distinct.add(root);
+            }
+        }
+        return distinct;
+    }
+
+    private List<int[]> groupFilesBySize(List<Path> roots, ScanCheckpoint checkpoint, Consumer<String> progress)
+            throws IOException, InterruptedException {
+        for (Path rootPath : roots) {
+            if (!Files.exists(rootPath)) {
+                throw new IOException("Path does not exist: " + rootPath);
+            }
+
+            if (!Files.isDirectory(rootPath)) {
+                throw new IOException("Path is not a directory: " + rootPath);
+            }
+
+            if (!Files.isReadable(rootPath)) {
+                throw new IOException("Cannot read directory: " + rootPath);
+            }
+        }
+
+        // While the walk continues, files that gain a same-size partner get their first sample hashed, so
+        // reading overlaps with listing; results land in the hash cache, where the first sampling stage finds them
+        ThreadPoolExecutor prefetchPool = newWorkerPool(Thread.NORM_PRIORITY);
+        // First row seen for each size, or -1 once that row's sample has been queued
+        Map<Long, Integer> firstRowBySize = new ConcurrentHashMap<>();
+        metrics.begin(ScanMetrics.Phase.WALK, 0, 0);
+        try {
+            new DirectoryWalker(settings.walkThreads, metrics, control, checkpoint, (file, attributes) -> {
+                int row = fileTable.add(file, attributes);
+                long size = attributes.size();
+                Integer firstRow = firstRowBySize.putIfAbsent(size, row);
+                if (firstRow != null) {
+                    if (firstRow >= 0 && firstRowBySize.replace(size, firstRow, -1)) {
+                        prefetchSample(prefetchPool, fileTable.path(firstRow), size);
+                    }
+                    prefetchSample(prefetchPool, file, size);
+                }
+                if ((row + 1) % WALK_PROGRESS_INTERVAL == 0) {
+                    progress.accept(String.format("Scanning files in directory... (%d files found)", row + 1));
+                }
+            }).walk(roots);
+        } finally {
+            // Samples not yet started are left to the sampling stage; those in flight are allowed to finish
+            prefetchPool.getQueue().clear();
+            prefetchPool.shutdown();
+            prefetchPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            metrics.end(ScanMetrics.Phase.WALK);
+        }
+
+        metrics.begin(ScanMetrics.Phase.SIZE_GROUPING, fileTable.size(), 0);
+        long started = System.nanoTime();
+        long startedCpu = ScanMetrics.cpuTime();
+        try {
+            return fileTable.sizeGroups();
+        } finally {
+            metrics.count(ScanMetrics.Phase.SIZE_GROUPING, fileTable.size(), 0);
+            metrics.time(ScanMetrics.Phase.SIZE_GROUPING, started, startedCpu);
+            metrics.end(ScanMetrics.Phase.SIZE_GROUPING);
+        }
+    }
+
+    private void prefetchSample(ExecutorService pool, Path file, long size) {
+        if (settings.sampleStages.length == 0 || size <= 2L * settings.sampleStages[0]) {
+            return;
+        }
+        pool.execute(() -> {
+            // A file with a cached full hash may never need sampling, so leave it to the cache pre-pass
+            if (control.proceed() && cachedHash(file, settings.hashAlgorithm.cacheKind) == null) {
+                hashFile(file, ScanMetrics.Phase.PARTIAL_HASH, Math.min(size, 2L * settings.sampleStages[0]),
+                    path -> calculateCachedSampleHash(path, settings.sampleStages[0]), (path, hash) -> { });
+            }
+        });
+    }
+
+    private Map<String, List<Path>> groupFilesByHash(List<int[]> sizeGroups, Listener listener)
+            throws InterruptedException {
+        Consumer<String> progress = listener::progress;
+        int[] allCandidates = sizeGroups.stream().flatMapToInt(Arrays::stream).toArray();
+
+        AtomicInteger cachedHashes = new AtomicInteger();
+        hashRows(allCandidates, null, 0, file -> cachedHash(file, settings.hashAlgorithm.cacheKind), (row, hash) -> {
+            if (hash != null) {
+                fileTable.setHash(row, hash);
+                cachedHashes.incrementAndGet();
+            }
+        }, Thread.NORM_PRIORITY, "Checking hash cache", progress);
+
+        // Groups whose members all have a cached hash are settled without reading anything; the rest go
+        // through the sampling stages, which consult the cache for each sample too
+        List<CandidateGroup> candidates = new ArrayList<>();
+        for (int[] rows : sizeGroups) {
+            if (!Arrays.stream(rows).allMatch(fileTable::hasHash)) {
+                candidates.add(new CandidateGroup(fileTable.fileSize(rows[0]), rows));
+            }
+        }
+
+        // Narrow each size group with progressively larger head/tail samples before reading whole files
+        for (int stage = 0; stage < settings.sampleStages.length; stage++) {
+            candidates = narrowBySample(candidates, stage + 1, settings.sampleStages[stage], progress);
+        }
+
+        // Very large files are compared chunk by chunk and stop being read where they differ
+        List<CandidateGroup> large = new ArrayList<>();
+        candidates.removeIf(group -> ChunkedHasher.applies(group.size) && large.add(group));
+        int[] chunked = hashInChunks(large, progress);
+
+        int[] hashed = candidates.stream().flatMapToInt(group -> Arrays.stream(group.rows)).toArray();
+        hashRows(hashed, ScanMetrics.Phase.FULL_HASH, Long.MAX_VALUE, this::calculateCachedFileHash,
+            fileTable::setHash, Thread.NORM_PRIORITY, "Hashing files", progress);
+        int[] survivors = IntStream.concat(IntStream.of(hashed), IntStream.of(chunked)).toArray();
+
+        int confirmed = 0;
+        for (int[] rows : fileTable.hashGroups(survivors)) {
+            confirmed += rows.length;
+        }
+        progress.accept(String.format("Full hash: eliminated %d of %d candidates (%d cached hashes reused)",
+            survivors.length - confirmed, survivors.length, cachedHashes.get()));
+
+        // Rows eliminated by sampling differ from every other candidate, so grouping all candidates by hash
+        // yields the survivor groups plus the settled ones
+        Map<String, List<Path>> hashGroups = new ConcurrentHashMap<>();
+        Map<String, Long> groupSizes = new HashMap<>();
+        for (int[] rows : fileTable.hashGroups(allCandidates)) {
+            List<Path> files = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                files.add(fileTable.path(row));
+            }
+            hashGroups.put(fileTable.hash(rows[0]), Collections.synchronizedList(files));
+            groupSizes.put(fileTable.hash(rows[0]), fileTable.fileSize(rows[0]));
+        }
+        Map<String, List<Path>> duplicates = confirmDuplicates(hashGroups, groupSizes, listener);
+
+        if ("eager".equals(settings.uniqueHashMode)) {
+            int[] remaining = IntStream.range(0, fileTable.size())
+                .filter(row -> !fileTable.hasHash(row) && !fileTable.isRemoved(row))
+                .toArray();
+            hashRows(remaining, ScanMetrics.Phase.FULL_HASH, Long.MAX_VALUE, this::calculateCachedFileHash,
+                fileTable::setHash, Thread.NORM_PRIORITY, "Hashing remaining files", progress);
+        }
+        return duplicates;
+    }
+
+    private Map<String, List<Path>> confirmDuplicates(Map<String, List<Path>> hashGroups, Map<String, Long> groupSizes,
+            Listener listener) throws InterruptedException {
+        Map<String, List<Path>> confirmed = new ConcurrentHashMap<>();
+        if (settings.hashAlgorithm.cryptographic || "none".equals(settings.confirmMode) || hashGroups.isEmpty()) {
+            for (Map.Entry<String, List<Path>> entry : hashGroups.entrySet()) {
+                addConfirmedGroups(confirmed, entry.getKey(), Collections.singletonList(entry.getValue()),
+                    groupSizes.get(entry.getKey()), listener);
+            }
+            return confirmed;
+        }
+
+        long memberCount = 0;
+        long memberBytes = 0;
+        for (Map.Entry<String, List<Path>> entry : hashGroups.entrySet()) {
+            memberCount += entry.getValue().size();
+            memberBytes += entry.getValue().size() * groupSizes.get(entry.getKey());
+        }
+        metrics.begin(ScanMetrics.Phase.CONFIRMATION, memberCount, memberBytes);
+        try {
+            confirmGroups(hashGroups, groupSizes, confirmed, listener);
+        } finally {
+            metrics.end(ScanMetrics.Phase.CONFIRMATION);
+        }
+
+        int rejected = 0;
+        for (List<Path> files : hashGroups.values()) {
+            rejected += files.size();
+        }
+        for (List<Path> files : confirmed.values()) {
+            rejected -= files.size();
+        }
+        listener.progress(String.format("Confirmed %d duplicate groups (%d files rejected)", confirmed.size(), rejected));
+        return confirmed;
+    }
+
+    private void confirmGroups(Map<String, List<Path>> hashGroups, Map<String, Long> groupSizes,
+            Map<String, List<Path>> confirmed, Listener listener) throws InterruptedException {
+        if ("bytes".equals(settings.confirmMode)) {
+            runParallel(new ArrayList<>(hashGroups.entrySet()), Thread.NORM_PRIORITY,
+                "Confirming duplicates byte for byte", "groups", listener::progress,
+                entry -> addConfirmedGroups(confirmed, entry.getKey(),
+                    partitionByContent(entry.getValue(), groupSizes.get(entry.getKey())),
+                    groupSizes.get(entry.getKey()), listener));
+        } else {
+            // Each group is settled as soon as its last member has been hashed, so results stream out early
+            List<Path> members = new ArrayList<>();
+            Map<Path, String> groupOf = new HashMap<>();
+            Map<String, AtomicInteger> unhashedMembers = new HashMap<>();
+            for (Map.Entry<String, List<Path>> entry : hashGroups.entrySet()) {
+                for (Path file : entry.getValue()) {
+                    members.add(file);
+                    groupOf.put(file, entry.getKey());
+                }
+                unhashedMembers.put(entry.getKey(), new AtomicInteger(entry.getValue().size()));
+            }
+            Map<Path, String> strongHashes = new ConcurrentHashMap<>();
+            runPerDevice(members, Thread.NORM_PRIORITY, "Confirming duplicates with SHA-256", "files",
+                listener::progress, file -> {
+                    String hash = groupOf.get(file);
+                    hashFile(file, ScanMetrics.Phase.CONFIRMATION, groupSizes.get(hash),
+                        path -> calculateCachedFileHash(path, HashAlgorithm.SHA256), strongHashes::put);
+                    if (unhashedMembers.get(hash).decrementAndGet() == 0) {
+                        Map<String, List<Path>> byStrongHash = new HashMap<>();
+                        for (Path member : hashGroups.get(hash)) {
+                            String strongHash = strongHashes.get(member);
+                            if (strongHash != null) {
+                                byStrongHash.computeIfAbsent(strongHash, k -> new ArrayList<>()).add(member);
+                            }
+                        }
+                        addConfirmedGroups(confirmed, hash, new ArrayList<>(byStrongHash.values()),
+                            groupSizes.get(hash), listener);
+                    }
+                });
+        }
+    }
+
+    private void addConfirmedGroups(Map<String, List<Path>> confirmed, String hash, List<List<Path>> partitions,
+            long size, Listener listener) {
+        // A genuine collision splits the group; each extra partition gets its own key
+        int index = 0;
+        for (List<Path> partition : partitions) {
+            if (partition.size() > 1) {
+                // Fix member order so the "keep first" choice is stable
+                List<Path> files = new ArrayList<>(partition);
+                files.sort(null);
+                String key = index == 0 ? hash : hash + "#" + index;
+                confirmed.put(key, Collections.synchronizedList(files));
+                groupSizes.put(key, size);
+                listener.exactDuplicates(key, size, files);
+                index++;
+            }
+        }
+    }
+
+    private List<List<Path>> partitionByContent(List<Path> files, long size) {
+        List<List<Path>> partitions = new ArrayList<>();
+        Semaphore ioPermits = storeSemaphore(files.get(0));
+        try {
+            ioPermits.acquire();
+            long started = System.nanoTime();
+            long startedCpu = ScanMetrics.cpuTime();
+            try {
+                for (Path file : files) {
+                    List<Path> match = null;
+                    for (List<Path> partition : partitions) {
+                        if (FileHasher.contentEquals(partition.get(0), file)) {
+                            match = partition;
+                            break;
+                        }
+                    }
+                    if (match == null) {
+                        match = new ArrayList<>();
+                        partitions.add(match);
+                    }
+                    match.add(file);
+                }
+                metrics.count(ScanMetrics.Phase.CONFIRMATION, files.size(), files.size() * size);
+            } finally {
+                metrics.time(ScanMetrics.Phase.CONFIRMATION, started, startedCpu);
+                ioPermits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            metrics.failed(ScanMetrics.Phase.CONFIRMATION);
+            System.err.println("Error comparing duplicates of: " + files.get(0) + " - " + e.getMessage());
+            partitions.clear();
+        }
+        return partitions;
+    }
+
+    private List<CandidateGroup> narrowBySample(List<CandidateGroup> candidates, int stage, int sampleSize,
+            Consumer<String> progress) throws InterruptedException {
+        // A sample covering the whole file is no cheaper than a full hash, so small groups skip the stage
+        int[] toSample = candidates.stream()
+            .filter(group -> group.size > 2L * sampleSize)
+            .flatMapToInt(group -> Arrays.stream(group.rows))
+            .toArray();
+        if (toSample.length == 0) {
+            return candidates;
+        }
+
+        Map<Integer, String> samples = new ConcurrentHashMap<>();
+        hashRows(toSample, ScanMetrics.Phase.PARTIAL_HASH, 2L * sampleSize,
+            file -> calculateCachedSampleHash(file, sampleSize), samples::put, Thread.NORM_PRIORITY, String.format("Stage %d: sampling files", stage), progress);
+
+        List<CandidateGroup> narrowed = new ArrayList<>();
+        int eliminated = 0;
+        for (CandidateGroup group : candidates) {
+            if (group.size <= 2L * sampleSize) {
+                narrowed.add(group);
+                continue;
+            }
+            Map<String, List<Integer>> sampleGroups = new HashMap<>();
+            for (int row : group.rows) {
+                String sample = samples.get(row);
+                if (sample != null) {
+                    sampleGroups.computeIfAbsent(sample, k -> new ArrayList<>()).add(row);
+                }
+            }
+            int kept = 0;
+            for (List<Integer> rows : sampleGroups.values()) {
+                if (rows.size() > 1) {
+                    narrowed.add(new CandidateGroup(group.size, rows.stream().mapToInt(Integer::intValue).sorted().toArray()));
+                    kept += rows.size();
+                }
+            }
+            eliminated += group.rows.length - kept;
+        }
+
+        progress.accept(String.format("Stage %d (%s head/tail sample): eliminated %d of %d candidates",
+            stage, formatFileSize(sampleSize), eliminated, toSample.length));
+        return narrowed;
+    }
+
+    /**
+     * Tree-hashes same-size groups of very large files by comparing them a window of chunks at a time: after
+     * each window, the files of a group are split by the digests read so far and those left without a partner
+     * are not read any further. The window doubles every round up to {@value #MAX_CHUNK_WINDOW} chunks, so
+     * files that differ early cost little while identical files are read with few pauses. Chunks of one file
+     * are separate tasks, so a single huge file is read by as many threads as its device has read permits.
+     * Files read to the end get their tree hash; returns their rows.
+     */
+    private int[] hashInChunks(List<CandidateGroup> groups, Consumer<String> progress) throws InterruptedException {
+        if (groups.isEmpty()) {
+            return new int[0];
+        }
+        HashAlgorithm algorithm = settings.hashAlgorithm;
+        long candidateCount = 0;
+        long totalBytes = 0;
+        for (CandidateGroup group : groups) {
+            for (int row : group.rows) {
+                chunkHashes.put(fileTable.path(row), new byte[ChunkedHasher.chunkCount(group.size)][]);
+                candidateCount++;
+                totalBytes += group.size;
+            }
+        }
+
+        List<Integer> finished = new ArrayList<>();
+        long[] bytesRead = new long[1];
+        metrics.begin(ScanMetrics.Phase.FULL_HASH, candidateCount, totalBytes);
+        try {
+            List<CandidateGroup> live = groups;
+            int from = 0;
+            for (int window = 1; !live.isEmpty(); window = Math.min(2 * window, MAX_CHUNK_WINDOW)) {
+                int to = from + window;
+                List<Path> files = new ArrayList<>();
+                List<int[]> chunks = new ArrayList<>();
+                for (CandidateGroup group : live) {
+                    for (int row : group.rows) {
+                        for (int index = from; index < Math.min(to, ChunkedHasher.chunkCount(group.size)); index++) {
+                            files.add(fileTable.path(row));
+                            chunks.add(new int[] { row, index });
+                            bytesRead[0] += ChunkedHasher.chunkLength(group.size, index);
+                        }
+                    }
+                }
+                runPerDevice(files.toArray(new Path[0]), Thread.NORM_PRIORITY, "Hashing large files in chunks",
+                    "chunks", progress, task -> {
+                        Path file = files.get(task);
+                        int index = chunks.get(task)[1];
+                        long length = ChunkedHasher.chunkLength(fileTable.fileSize(chunks.get(task)[0]), index);
+                        // A file counts once, with its first chunk; later chunks only add bytes
+                        hashFile(file, ScanMetrics.Phase.FULL_HASH, index == 0 ? 1 : 0, length, path -> {
+                            chunkHashes.get(path)[index] = ChunkedHasher.hashChunk(path, index, algorithm.newDigest());
+                            return null;
+                        }, (path, hash) -> { });
+                    });
+
+                List<CandidateGroup> next = new ArrayList<>();
+                for (CandidateGroup group : live) {
+                    int end = Math.min(to, ChunkedHasher.chunkCount(group.size));
+                    Map<String, List<Integer>> byChunks = new HashMap<>();
+                    for (int row : group.rows) {
+                        String digests = chunkWindow(chunkHashes.get(fileTable.path(row)), from, end);
+                        if (digests != null) {
+                            byChunks.computeIfAbsent(digests, k -> new ArrayList<>()).add(row);
+                        }
+                    }
+                    for (List<Integer> rows : byChunks.values()) {
+                        if (rows.size() < 2) {
+                            continue;
+                        }
+                        if (end == ChunkedHasher.chunkCount(group.size)) {
+                            for (int row : rows) {
+                                setTreeHash(row, algorithm);
+                                finished.add(row);
+                            }
+                        } else {
+                            next.add(new CandidateGroup(group.size, rows.stream().mapToInt(Integer::intValue).toArray()));
+                        }
+                    }
+                }
+                live = next;
+                from = to;
+            }
+        } finally {
+            metrics.end(ScanMetrics.Phase.FULL_HASH);
+            chunkHashes.clear();
+        }
+
+        progress.accept(String.format("Chunked hash: eliminated %d of %d large candidates, reading %s of %s",
+            candidateCount - finished.size(), candidateCount, formatFileSize(bytesRead[0]), formatFileSize(totalBytes)));
+        return finished.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** The digests of chunks {@code [from, to)} as one key, or null if any of them could not be read. */
+    private static String chunkWindow(byte[][] chunks, int from, int to) {
+        StringBuilder window = new StringBuilder();
+        for (int index = from; index < to; index++) {
+            if (chunks[index] == null) {
+                return null;
+            }
+            window.append(FileHasher.toHex(chunks[index]));
+        }
+        return window.toString();
+    }
+
+    private void setTreeHash(int row, HashAlgorithm algorithm) {
+        Path file = fileTable.path(row);
+        String hash = FileHasher.toHex(ChunkedHasher.combine(chunkHashes.get(file), algorithm.newDigest()));
+        fileTable.setHash(row, hash);
+        try {
+            hashCache.putTreeHash(file, Files.readAttributes(file, BasicFileAttributes.class), algorithm.cacheKind,
+                ChunkedHasher.CHUNK_SIZE, hash);
+        } catch (IOException e) {
+            // Only the cache entry is lost; the hash itself is known
+        }
+    }
+
+    /**
+     * Hashes the files of {@code rows} on the worker pool, recording them in the metrics of {@code phase} as
+     * reading at most {@code maxBytesPerFile} each; a null phase leaves the work unmeasured.
+     */
+    private void hashRows(int[] rows, ScanMetrics.Phase phase, long maxBytesPerFile, FileHashFunction hashFunction,
+            RowHashConsumer results, int priority, String label, Consumer<String> progress)
+            throws InterruptedException {
+        Path[] files = new Path[rows.length];
+        long[] bytes = new long[rows.length];
+        long expectedBytes = 0;
+        for (int index = 0; index < rows.length; index++) {
+            files[index] = fileTable.path(rows[index]);
+            bytes[index] = Math.min(fileTable.fileSize(rows[index]), maxBytesPerFile);
+            expectedBytes += bytes[index];
+        }
+        if (phase != null) {
+            metrics.begin(phase, rows.length, expectedBytes);
+        }
+        try {
+            runPerDevice(files, priority, label, "files", progress, index -> {
+                int row = rows[index];
+                hashFile(files[index], phase, bytes[index], hashFunction, (file, hash) -> results.accept(row, hash));
+            });
+        } finally {
+            if (phase != null) {
+                metrics.end(phase);
+            }
+        }
+    }
+
+    private void runPerDevice(List<Path> files, int priority, String label, String unit, Consumer<String> progress,
+            Consumer<Path> task) throws InterruptedException {
+        runPerDevice(files.toArray(new Path[0]), priority, label, unit, progress, index -> task.accept(files.get(index)));
+    }
+
+    /**
+     * Like {@link #runParallel}, for tasks that each read one file. Every storage device gets its own queue in
+     * path order, so a disk reads directory by directory instead of jumping between folders, and only as many
+     * of its tasks as it has read permits are handed to the pool at a time. A slow disk or network share then
+     * holds back its own queue only, instead of filling the pool with threads waiting for its permits.
+     */
+    private void runPerDevice(Path[] files, int priority, String label, String unit, Consumer<String> progress,
+            IntConsumer task) throws InterruptedException {
+        if (files.length == 0) {
+            return;
+        }
+
+        Map<Object, List<Integer>> indicesByStore = new LinkedHashMap<>();
+        for (int index = 0; index < files.length; index++) {
+            indicesByStore.computeIfAbsent(storeOf(files[index]), store -> new ArrayList<>()).add(index);
+        }
+        int devices = indicesByStore.size();
+        int[][] queues = new int[devices][];
+        int[] readers = new int[devices];
+        int[] deviceOf = new int[files.length];
+        int device = 0;
+        for (Map.Entry<Object, List<Integer>> store : indicesByStore.entrySet()) {
+            queues[device] = store.getValue().stream()
+                .sorted((first, second) -> files[first].compareTo(files[second]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+            readers[device] = storeReaders(store.getKey());
+            for (int index : queues[device]) {
+                deviceOf[index] = device;
+            }
+            device++;
+        }
+
+        // A failed task must still count as finished, or its device would stop being refilled
+        IntConsumer guardedTask = index -> {
+            try {
+                task.accept(index);
+            } catch (RuntimeException e) {
+                System.err.println("Error processing file: " + files[index] + " - " + e.getMessage());
+            }
+        };
+        ExecutorService pool = newWorkerPool(priority);
+        try {
+            CompletionService<Integer> completionService = new ExecutorCompletionService<>(pool);
+            int[] next = new int[devices];
+            for (device = 0; device < devices; device++) {
+                while (next[device] < Math.min(queues[device].length, readers[device])) {
+                    submitTask(completionService, guardedTask, queues[device][next[device]++]);
+                }
+            }
+
+            for (int completed = 1; completed <= files.length; completed++) {
+                int finishedDevice = deviceOf[finishedIndex(completionService)];
+                control.check();
+                if (next[finishedDevice] < queues[finishedDevice].length) {
+                    submitTask(completionService, guardedTask, queues[finishedDevice][next[finishedDevice]++]);
+                }
+                if (completed % PROGRESS_INTERVAL == 0 || completed == files.length) {
+                    progress.accept(String.format("%s... (%d/%d %s)", label, completed, files.length, unit));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int finishedIndex(CompletionService<Integer> completionService) throws InterruptedException {
+        try {
+            return completionService.take().get();
+        } catch (ExecutionException e) {
+            // Only errors, not exceptions, get past the guard
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> void runParallel(List<T> items, int priority, String label, String unit, Consumer<String> progress,
+            Consumer<T> task) throws InterruptedException {
+        runParallel(items.size(), priority, label, unit, progress, index -> task.accept(items.get(index)));
+    }
+
+    private void runParallel(int count, int priority, String label, String unit, Consumer<String> progress,
+            IntConsumer task) throws InterruptedException {
+        if (count == 0) {
+            return;
+        }
+
+        ExecutorService pool = newWorkerPool(priority);
+        try {
+            // Only a few tasks per thread are queued at a time, so millions of files never become millions of futures
+            CompletionService<Integer> completionService = new ExecutorCompletionService<>(pool);
+            int submitted = 0;
+            while (submitted < Math.min(count, settings.hashThreads * 4)) {
+                submitTask(completionService, task, submitted++);
+            }
+
+            for (int completed = 1; completed <= count; completed++) {
+                completionService.take();
+                control.check();
+                if (submitted < count) {
+                    submitTask(completionService, task, submitted++);
+                }
+                if (completed % PROGRESS_INTERVAL == 0 || completed == count) {
+                    progress.accept(String.format("%s... (%d/%d %s)", label, completed, count, unit));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void submitTask(CompletionService<Integer> completionService, IntConsumer task, int index) {
+        // Tasks still queued when the scan is cancelled end without doing their work
+        completionService.submit(() -> {
+            if (control.proceed()) {
+                task.accept(index);
+            }
+            return index;
+        });
+    }
+
+    private ThreadPoolExecutor newWorkerPool(int priority) {
+        return new ThreadPoolExecutor(settings.hashThreads, settings.hashThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "dff-hash");
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            });
+    }
+
+    private void hashFile(Path file, ScanMetrics.Phase phase, long bytes, FileHashFunction hashFunction,
+            BiConsumer<Path, String> results) {
+        hashFile(file, phase, 1, bytes, hashFunction, results);
+    }
+
+    private void hashFile(Path file, ScanMetrics.Phase phase, long files, long bytes, FileHashFunction hashFunction,
+            BiConsumer<Path, String> results) {
+        Semaphore ioPermits = storeSemaphore(file);
+        try {
+            ioPermits.acquire();
+            String hash;
+            boolean[] cacheHit = CACHE_HIT.get();
+            cacheHit[0] = false;
+            // Time spent waiting for a read permit is not the phase's work, so the clock starts after it
+            long started = System.nanoTime();
+            long startedCpu = ScanMetrics.cpuTime();
+            try {
+                hash = hashFunction.hash(file);
+            } finally {
+                ioPermits.release();
+                if (phase != null) {
+                    metrics.time(phase, started, startedCpu);
+                }
+            }
+            if (phase != null && cacheHit[0]) {
+                metrics.cached(phase, files, bytes);
+            } else if (phase != null) {
+                metrics.count(phase, files, bytes);
+            }
+            results.accept(file, hash);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (phase != null) {
+                metrics.failed(phase);
+            }
+            System.err.println("Error calculating hash for: " + file + " - " + e.getMessage());
+        }
+    }
+
+    private Semaphore storeSemaphore(Path file) {
+        return storeSemaphores.computeIfAbsent(storeOf(file), store -> new Semaphore(storeReaders(store), true));
+    }
+
+    private Object storeOf(Path file) {
+        // FileStore lookups are expensive, so resolve them once per directory
+        Path directory = file.toAbsolutePath().getParent();
+        return directoryStores.computeIfAbsent(directory, dir -> {
+            try {
+                return Files.getFileStore(dir);
+            } catch (IOException e) {
+                return dir.getRoot();
+            }
+        });
+    }
+
+    /** Concurrent reads allowed on a store: dff.ioPerDevice, or dff.ioPerSpinningDisk for rotational disks. */
+    private int storeReaders(Object store) {
+        return storeReaders.computeIfAbsent(store, key -> key instanceof FileStore && isSpinningDisk((FileStore) key)
+            ? Math.min(settings.ioPerDevice, settings.ioPerSpinningDisk) : settings.ioPerDevice);
+    }
+
+    private static boolean isSpinningDisk(FileStore store) {
+        // Linux reports rotational media per block device; elsewhere every device gets the same limit
+        String name = store.name();
+        if (!name.startsWith("/dev/")) {
+            return false;
+        }
+        try {
+            String device = Paths.get(name).toRealPath().getFileName().toString();
+            // Partitions have no queue of their own; the disk they belong to is their parent in sysfs
+            for (Path sysfs = Paths.get("/sys/class/block", device).toRealPath(); sysfs != null
+                    && sysfs.startsWith("/sys/devices"); sysfs = sysfs.getParent()) {
+                Path rotational = sysfs.resolve("queue").resolve("rotational");
+                if (Files.exists(rotational)) {
+                    return "1".equals(new String(Files.readAllBytes(rotational), StandardCharsets.US_ASCII).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unknown devices keep the default limit
+        }
+        return false;
+    }
+
+    private String calculateFileHash(Path filePath) throws Exception {
+        return calculateFileHash(filePath, settings.hashAlgorithm);
+    }
+
+    private String calculateFileHash(Path filePath, HashAlgorithm algorithm) throws Exception {
+        // Files large enough for a tree hash get one wherever they are hashed, so equal files always match
+        if (ChunkedHasher.applies(Files.size(filePath))) {
+            // The caller holds one of the device's read permits; further chunk readers need one each
+            return FileHasher.toHex(ChunkedHasher.hash(filePath, algorithm, storeSemaphore(filePath)));
+        }
+        return FileHasher.toHex(FileHasher.hash(filePath, algorithm.newDigest()));
+    }
+
+    private String calculateCachedFileHash(Path filePath) throws Exception {
+        return calculateCachedFileHash(filePath, settings.hashAlgorithm);
+    }
+
+    private String calculateCachedFileHash(Path filePath, HashAlgorithm algorithm) throws Exception {
+        BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        String hash = cachedHash(filePath, attributes, algorithm.cacheKind);
+        if (hash != null) {
+            CACHE_HIT.get()[0] = true;
+            return hash;
+        }
+        hash = calculateFileHash(filePath, algorithm);
+        if (ChunkedHasher.applies(attributes.size())) {
+            hashCache.putTreeHash(filePath, attributes, algorithm.cacheKind, ChunkedHasher.CHUNK_SIZE, hash);
+        } else {
+            hashCache.put(filePath, attributes, algorithm.cacheKind, hash);
+        }
+        return hash;
+    }
+
+    private String calculateCachedSampleHash(Path filePath, int sampleSize) throws Exception {
+        BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        String hash = hashCache.getSample(filePath, attributes, settings.hashAlgorithm.cacheKind, sampleSize);
+        if (hash != null) {
+            CACHE_HIT.get()[0] = true;
+            return hash;
+        }
+        hash = calculateSampleHash(filePath, sampleSize);
+        hashCache.putSample(filePath, attributes, settings.hashAlgorithm.cacheKind, sampleSize, hash);
+        return hash;
+    }
+
+    private String cachedHash(Path filePath, byte kind) {
+        try {
+            return cachedHash(filePath, Files.readAttributes(filePath, BasicFileAttributes.class), kind);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private String cachedHash(Path filePath, BasicFileAttributes attributes, byte kind) {
+        return ChunkedHasher.applies(attributes.size())
+            ? hashCache.getTreeHash(filePath, attributes, kind, ChunkedHasher.CHUNK_SIZE)
+            : hashCache.get(filePath, attributes, kind);
+    }
+
+    private String calculateSampleHash(Path filePath, int sampleSize) throws Exception {
+        return FileHasher.toHex(FileHasher.hashSample(filePath, sampleSize, settings.hashAlgorithm.newDigest()));
+    }
+
+    private boolean isImageFile(String fileName) {
+        String lowerCaseName = fileName.toLowerCase();
+        return IMAGE_EXTENSIONS.stream().anyMatch(lowerCaseName::endsWith);
+    }
+
+    private long calculateDHash(Path imagePath) throws Exception {
+        try {
+            // Decodes subsampled (or from the EXIF thumbnail), falling back to a full ImageIO.read
+            long started = System.nanoTime();
+            long startedCpu = ScanMetrics.cpuTime();
+            BufferedImage image;
+            try {
+                image = ImageDecoder.decode(imagePath);
+            } finally {
+                metrics.time(ScanMetrics.Phase.IMAGE_DECODE, started, startedCpu);
+            }
+            metrics.count(ScanMetrics.Phase.IMAGE_DECODE, 1, Files.size(imagePath));
+            started = System.nanoTime();
+            startedCpu = ScanMetrics.cpuTime();
+
+            // Average the image down to 9x8 gray cells (we need 9 columns to compare 8 differences);
+            // area averaging gives the same cells whether the source was subsampled, a thumbnail or full size
+            int width = image.getWidth();
+            int height = image.getHeight();
+            double[] cellSums = new double[9 * 8];
+            int[] cellCounts = new int[9 * 8];
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                int cellRow = y * 8 / height * 9;
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    int gray = (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+                    int cell = cellRow + x * 9 / width;
+                    cellSums[cell] += gray;
+                    cellCounts[cell]++;
+                }
+            }
+
+            // Calculate dHash by comparing adjacent cells, most significant bit first
+            long hash = 0;
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    int left = y * 9 + x;
+                    double leftPixel = cellCounts[left] > 0 ? cellSums[left] / cellCounts[left] : 0;
+                    double rightPixel = cellCounts[left + 1] > 0 ? cellSums[left + 1] / cellCounts[left + 1] : 0;
+                    hash = (hash << 1) | (leftPixel < rightPixel ? 1 : 0);
+                }
+            }
+            metrics.time(ScanMetrics.Phase.DHASH, started, startedCpu);
+            metrics.count(ScanMetrics.Phase.DHASH, 1, 0);
+
+            return hash;
+        } catch (Exception e) {
+            throw new Exception("Error calculating dHash for " + imagePath + ": " + e.getMessage());
+        }
+    }
+
+    static String formatDHash(long dHash) {
+        return String.format("%016x", dHash);
+    }
+
+    private Map<String, List<Path>> findVisualDuplicates(int[] imageRows, Listener listener)
+            throws InterruptedException {
+        Map<String, List<Path>> visualDups = new HashMap<>();
+
+        // Calculate dHash for all images on the worker pool; ImageDecoder bounds how many decodes fit in memory.
+        // Rows hashed by an earlier pass keep their dHash
+        int[] unhashedRows = IntStream.of(imageRows).filter(row -> !fileTable.hasDHash(row)).toArray();
+        metrics.begin(ScanMetrics.Phase.IMAGE_DECODE, unhashedRows.length, 0);
+        metrics.begin(ScanMetrics.Phase.DHASH, unhashedRows.length, 0);
+        try {
+            hashImages(unhashedRows, listener);
+        } finally {
+            metrics.end(ScanMetrics.Phase.IMAGE_DECODE);
+            metrics.end(ScanMetrics.Phase.DHASH);
+        }
+
+        // Cluster images whose hashes are within the similarity threshold, using a multi-index hash
+        // instead of comparing every pair; connected components make grouping transitive
+        int[] hashedRows = IntStream.of(imageRows).filter(fileTable::hasDHash).toArray();
+        Path[] paths = new Path[hashedRows.length];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = fileTable.path(hashedRows[i]);
+        }
+        // Rows arrive in walk order, which varies between runs; path order keeps group keys stable
+        int[] order = IntStream.range(0, paths.length).boxed()
+            .sorted((first, second) -> paths[first].compareTo(paths[second]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+        List<Path> hashedImages = new ArrayList<>(order.length);
+        long[] hashes = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            hashedImages.add(paths[order[i]]);
+            hashes[i] = fileTable.dHash(hashedRows[order[i]]);
+        }
+
+        metrics.begin(ScanMetrics.Phase.CLUSTERING, hashes.length, 0);
+        long started = System.nanoTime();
+        long startedCpu = ScanMetrics.cpuTime();
+        List<int[]> clusters;
+        try {
+            clusters = SimilarityIndex.cluster(hashes, settings.similarityThreshold, control);
+            metrics.count(ScanMetrics.Phase.CLUSTERING, hashes.length, 0);
+        } finally {
+            metrics.time(ScanMetrics.Phase.CLUSTERING, started, startedCpu);
+            metrics.end(ScanMetrics.Phase.CLUSTERING);
+        }
+        for (int[] cluster : clusters) {
+            List<Path> similarImages = new ArrayList<>(cluster.length);
+            for (int index : cluster) {
+                similarImages.add(hashedImages.get(index));
+            }
+            String key = formatDHash(hashes[cluster[0]]);
+            visualDups.put(key, similarImages);
+            groupSizes.put(key, fileTable.fileSize(hashedRows[order[cluster[0]]]));
+            listener.visualDuplicates(key, similarImages);
+        }
+
+        return visualDups;
+    }
+
+    private void hashImages(int[] rows, Listener listener) throws InterruptedException {
+        runParallel(rows.length, Thread.NORM_PRIORITY, "Hashing images", "images", listener::progress, index -> {
+            int row = rows[index];
+            Path imageFile = fileTable.path(row);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(imageFile, BasicFileAttributes.class);
+                OptionalLong cached = hashCache.getDHash(imageFile, attributes);
+                long dHash;
+                if (cached.isPresent()) {
+                    dHash = cached.getAsLong();
+                    // Neither decoded nor hashed, but done for both phases, as in hashFile
+                    metrics.cached(ScanMetrics.Phase.IMAGE_DECODE, 1, 0);
+                    metrics.cached(ScanMetrics.Phase.DHASH, 1, 0);
+                } else {
+                    dHash = calculateDHash(imageFile);
+                    hashCache.putDHash(imageFile, attributes, dHash);
+                }
+                fileTable.setDHash(row, dHash);
+            } catch (Exception e) {
+                metrics.failed(ScanMetrics.Phase.IMAGE_DECODE);
+                System.err.println("Error calculating dHash for: " + imageFile + " - " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Estimates what block-level deduplication would save on top of the exact duplicates: every file of at
+     * least dff.partialMinSize, except the extra copies in exact groups, is split into content-defined chunks
+     * and the chunks go into a memory-bounded {@link ChunkIndex}. Pairs sharing at least dff.partialOverlap of
+     * the smaller file are reported, largest share first.
+     */
+    private void findPartialDuplicates(Listener listener) throws InterruptedException {
+        // An exact group is represented by its first file; its other copies would only repeat its chunks
+        Set<Path> copies = new HashSet<>();
+        for (List<Path> files : exactDuplicates.values()) {
+            copies.addAll(files.subList(1, files.size()));
+        }
+        // In path order, since the index gives each chunk to the file with the lowest index that contains it
+        int[] rows = IntStream.range(0, fileTable.size())
+            .filter(row -> !fileTable.isRemoved(row) && fileTable.fileSize(row) >= settings.partialMinSize
+                && !copies.contains(fileTable.path(row)))
+            .boxed()
+            .sorted((first, second) -> fileTable.path(first).compareTo(fileTable.path(second)))
+            .mapToInt(Integer::intValue)
+            .toArray();
+        if (rows.length < 2) {
+            return;
+        }
+        listener.progress(String.format("Chunking %d large files for partial duplicates...", rows.length));
+
+        Path[] files = new Path[rows.length];
+        long totalBytes = 0;
+        for (int file = 0; file < rows.length; file++) {
+            files[file] = fileTable.path(rows[file]);
+            totalBytes += fileTable.fileSize(rows[file]);
+        }
+        ContentChunker chunker = new ContentChunker(settings.cdcChunkSize);
+        ChunkIndex index = new ChunkIndex(settings.chunkIndexMemory, totalBytes / chunker.averageSize(),
+            rows.length);
+        metrics.begin(ScanMetrics.Phase.CONTENT_CHUNKING, rows.length, totalBytes);
+        try {
+            runPerDevice(files, Thread.NORM_PRIORITY, "Chunking large files", "files", listener::progress, file ->
+                hashFile(files[file], ScanMetrics.Phase.CONTENT_CHUNKING, fileTable.fileSize(rows[file]), path -> {
+                    addChunks(chunker, index, file, path);
+                    return null;
+                }, (path, hash) -> { }));
+        } finally {
+            metrics.end(ScanMetrics.Phase.CONTENT_CHUNKING);
+        }
+
+        List<PartialDuplicate> pairs = new ArrayList<>();
+        for (ChunkIndex.SharedBytes shared : index.sharedBytes()) {
+            long smaller = Math.min(fileTable.fileSize(rows[shared.first]), fileTable.fileSize(rows[shared.second]));
+            double fraction = Math.min(1.0, (double) shared.bytes / smaller);
+            if (fraction >= settings.partialOverlap) {
+                Path first = files[shared.first];
+                Path second = files[shared.second];
+                pairs.add(first.compareTo(second) < 0
+                    ? new PartialDuplicate(first, second, shared.bytes, fraction)
+                    : new PartialDuplicate(second, first, shared.bytes, fraction));
+            }
+        }
+        pairs.sort((first, second) -> first.sharedBytes != second.sharedBytes
+            ? Long.compare(second.sharedBytes, first.sharedBytes) : first.first.compareTo(second.first));
+        partialDuplicates = pairs;
+        blockSavings = index.duplicateBytes();
+        for (PartialDuplicate pair : pairs) {
+            listener.partialDuplicates(pair);
+        }
+        listener.progress(String.format("Partial duplicates: %d pairs share at least %.0f%%; block-level dedup would "
+            + "reclaim about %s of %s%s", pairs.size(), settings.partialOverlap * 100, formatFileSize(blockSavings),
+            formatFileSize(totalBytes), index.samplingBits() == 0 ? ""
+                : String.format(" (estimated from 1 in %d chunks)", 1L << index.samplingBits())));
+    }
+
+    /** Chunks one file and adds the chunks in the index's sample to it, a batch at a time. */
+    private static void addChunks(ContentChunker chunker, ChunkIndex index, int file, Path path) throws IOException {
+        // Batches keep memory per file fixed however large it is
+        long[] fingerprints = new long[CHUNK_BATCH];
+        int[] lengths = new int[CHUNK_BATCH];
+        int[] count = { 0 };
+        chunker.chunk(path, (fingerprint, length) -> {
+            if (!index.sampled(fingerprint)) {
+                return;
+            }
+            fingerprints[count[0]] = fingerprint;
+            lengths[count[0]++] = length;
+            if (count[0] == CHUNK_BATCH) {
+                index.add(file, fingerprints, lengths, count[0]);
+                count[0] = 0;
+            }
+        });
+        index.add(file, fingerprints, lengths, count[0]);
+    }
+
+    private interface FileHashFunction {
+        String hash(Path file) throws Exception;
+    }
+
+    private interface RowHashConsumer {
+        void accept(int row, String hash);
+    }
+
+    private static final class CandidateGroup {
+        final long size;
+        final int[] rows;
+
+        CandidateGroup(long size, int[] rows) {
+            this.size = size;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers for each phase of a scan: files and bytes processed, files answered from the hash cache
+ * (which count as files but not as bytes read), errors, wall time while the phase runs, and the busy and CPU
+ * time its tasks spent, summed over all threads. Busy time well above CPU time means the phase waits on the
+ * disk; CPU time close to wall time times the thread count means it is compute bound.
+ * Updates are lock-free adders, cheap enough to record per file from the worker threads.
+ */
+final class ScanMetrics {
+    enum Phase {
+        WALK("walk", "Walk"),
+        SIZE_GROUPING("sizeGrouping", "Size grouping"),
+        PARTIAL_HASH("partialHash", "Partial hash"),
+        FULL_HASH("fullHash", "Full hash"),
+        CONFIRMATION("confirmation", "Confirmation"),
+        IMAGE_DECODE("imageDecode", "Image decode"),
+        DHASH("dHash", "dHash"),
+        CLUSTERING("clustering", "Clustering"),
+        CONTENT_CHUNKING("contentChunking", "Content chunking");
+
+        final String id;
+        final String displayName;
+
+        Phase(String id, String displayName) {
+            this.id = id;
+            this.displayName = displayName;
+        }
+    }
+
+    /** One phase's numbers at a point in time. */
+    static final class PhaseStats {
+        final Phase phase;
+        final long files;
+        final long bytes;
+        final long cachedFiles;
+        final long errors;
+        final long expectedFiles;
+        final long expectedBytes;
+        final long wallNanos;
+        final long busyNanos;
+        final long cpuNanos;
+        final boolean running;
+
+        PhaseStats(Phase phase, long files, long bytes, long cachedFiles, long errors, long expectedFiles,
+                long expectedBytes, long wallNanos, long busyNanos, long cpuNanos, boolean running) {
+            this.phase = phase;
+            this.files = files;
+            this.bytes = bytes;
+            this.cachedFiles = cachedFiles;
+            this.errors = errors;
+            this.expectedFiles = expectedFiles;
+            this.expectedBytes = expectedBytes;
+            this.wallNanos = wallNanos;
+            this.busyNanos = busyNanos;
+            this.cpuNanos = cpuNanos;
+            this.running = running;
+        }
+
+        boolean isEmpty() {
+            return files == 0 && bytes == 0 && errors == 0 && wallNanos == 0 && busyNanos == 0;
+        }
+
+        double filesPerSecond() {
+            return wallNanos > 0 ? files * 1e9 / wallNanos : 0;
+        }
+
+        double megabytesPerSecond() {
+            return wallNanos > 0 ? bytes / (1024.0 * 1024.0) * 1e9 / wallNanos : 0;
+        }
+
+        /** The phase's counts, rates and times on one line, for the command-line summary and the status bar. */
+        String summary() {
+            StringBuilder line = new StringBuilder(phase.displayName).append(": ").append(files).append(" files");
+            if (bytes > 0) {
+                line.append(", ").append(ScanEngine.formatFileSize(bytes));
+            }
+            if (cachedFiles > 0) {
+                line.append(" (").append(cachedFiles).append(" from cache)");
+            }
+            line.append(String.format(Locale.ROOT, " in %.1f s (", wallNanos / 1e9));
+            if (bytes > 0) {
+                line.append(String.format(Locale.ROOT, "%.1f MB/s, ", megabytesPerSecond()));
+            }
+            line.append(String.format(Locale.ROOT, "%.0f files/s), busy %.1f s, CPU %.1f s", filesPerSecond(),
+                busyNanos / 1e9, cpuNanos / 1e9));
+            if (errors > 0) {
+                line.append(", ").append(errors).append(errors == 1 ? " error" : " errors");
+            }
+            return line.toString();
+        }
+
+        /** Estimated seconds until the phase has processed what it expects, or -1 if that is unknown. */
+        long etaSeconds() {
+            if (!running || wallNanos <= 0) {
+                return -1;
+            }
+            // Bytes predict better than files when sizes vary; the files count is the fallback
+            double remaining;
+            if (expectedBytes > 0 && bytes > 0) {
+                remaining = (double) Math.max(0, expectedBytes - bytes) / bytes;
+            } else if (expectedFiles > 0 && files > 0) {
+                remaining = (double) Math.max(0, expectedFiles - files) / files;
+            } else {
+                return -1;
+            }
+            return (long) Math.ceil(remaining * wallNanos / 1e9);
+        }
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = enableCpuTime();
+    private static final String MBEAN_NAME = "DuplicateFileFinder:type=ScanMetrics";
+
+    private final Map<Phase, Counters> counters = new EnumMap<>(Phase.class);
+    private volatile long startedNanos = System.nanoTime();
+    private volatile Phase activePhase;
+
+    ScanMetrics() {
+        for (Phase phase : Phase.values()) {
+            counters.put(phase, new Counters());
+        }
+    }
+
+    /** Clears every counter, as at the start of a scan. */
+    void reset() {
+        for (Counters phase : counters.values()) {
+            phase.reset();
+        }
+        activePhase = null;
+        startedNanos = System.nanoTime();
+    }
+
+    /** Starts a phase's wall clock and adds to the work it expects, which the ETA is based on. */
+    void begin(Phase phase, long expectedFiles, long expectedBytes) {
+        counters.get(phase).begin(expectedFiles, expectedBytes);
+        activePhase = phase;
+    }
+
+    void end(Phase phase) {
+        counters.get(phase).end();
+    }
+
+    void count(Phase phase, long files, long bytes) {
+        Counters phaseCounters = counters.get(phase);
+        phaseCounters.files.add(files);
+        phaseCounters.bytes.add(bytes);
+    }
+
+    /**
+     * Counts files whose value came from the hash cache: they are processed, but their {@code bytes} were
+     * not read, so they leave the bytes the phase expects instead of adding to the bytes read.
+     */
+    void cached(Phase phase, long files, long bytes) {
+        Counters phaseCounters = counters.get(phase);
+        phaseCounters.files.add(files);
+        phaseCounters.cachedFiles.add(files);
+        phaseCounters.skip(bytes);
+    }
+
+    void failed(Phase phase) {
+        counters.get(phase).errors.increment();
+    }
+
+    /** Adds the time a task spent since {@code startNanos}, and the CPU time since {@code startCpuNanos}. */
+    void time(Phase phase, long startNanos, long startCpuNanos) {
+        Counters phaseCounters = counters.get(phase);
+        phaseCounters.busyNanos.add(System.nanoTime() - startNanos);
+        if (CPU_TIME_SUPPORTED) {
+            phaseCounters.cpuNanos.add(cpuTime() - startCpuNanos);
+        }
+    }
+
+    /** CPU time of the calling thread in nanoseconds, or 0 where the JVM cannot measure it. */
+    static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /** The phase started last, while it is still running. */
+    Phase activePhase() {
+        Phase phase = activePhase;
+        return phase != null && counters.get(phase).isRunning() ? phase : null;
+    }
+
+    long elapsedNanos() {
+        return System.nanoTime() - startedNanos;
+    }
+
+    List<PhaseStats> snapshot() {
+        List<PhaseStats> stats = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            stats.add(stats(phase));
+        }
+        return stats;
+    }
+
+    PhaseStats stats(Phase phase) {
+        return counters.get(phase).stats(phase);
+    }
+
+    /** The current numbers as one JSON object. */
+    String toJson() {
+        Phase active = activePhase();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos()))
+            .append(",\"activePhase\":").append(active != null ? LogExporter.jsonString(active.id) : "null")
+            .append(",\"cpuTimeSupported\":").append(CPU_TIME_SUPPORTED)
+            .append(",\"phases\":[");
+        for (PhaseStats stats : snapshot()) {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            json.append("\n{\"phase\":").append(LogExporter.jsonString(stats.phase.id))
+                .append(",\"name\":").append(LogExporter.jsonString(stats.phase.displayName))
+                .append(",\"running\":").append(stats.running)
+                .append(",\"files\":").append(stats.files)
+                .append(",\"bytes\":").append(stats.bytes)
+                .append(",\"cachedFiles\":").append(stats.cachedFiles)
+                .append(",\"errors\":").append(stats.errors)
+                .append(",\"expectedFiles\":").append(stats.expectedFiles)
+                .append(",\"expectedBytes\":").append(stats.expectedBytes)
+                .append(",\"wallMillis\":").append(TimeUnit.NANOSECONDS.toMillis(stats.wallNanos))
+                .append(",\"busyMillis\":").append(TimeUnit.NANOSECONDS.toMillis(stats.busyNanos))
+                .append(",\"cpuMillis\":").append(TimeUnit.NANOSECONDS.toMillis(stats.cpuNanos))
+                .append(",\"filesPerSecond\":").append(String.format(Locale.ROOT, "%.1f", stats.filesPerSecond()))
+                .append(",\"megabytesPerSecond\":")
+                .append(String.format(Locale.ROOT, "%.2f", stats.megabytesPerSecond()))
+                .append(",\"etaSeconds\":").append(stats.etaSeconds())
+                .append('}');
+        }
+        return json.append("\n]}\n").toString();
+    }
+
+    void writeJson(Path target) throws IOException {
+        Files.write(target, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server as {@code DuplicateFileFinder:type=ScanMetrics},
+     * replacing an earlier registration, so JConsole or any JMX client can follow a running scan.
+     */
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(), name);
+        } catch (JMException | SecurityException e) {
+            System.err.println("Error registering scan metrics for JMX: " + e.getMessage());
+        }
+    }
+
+    private static boolean enableCpuTime() {
+        try {
+            if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+                return false;
+            }
+            if (!THREADS.isThreadCpuTimeEnabled()) {
+                THREADS.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder files = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder cachedFiles = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        private long expectedFiles;
+        private long expectedBytes;
+        private long wallNanos;
+        // Phases such as sampling run once per stage; the wall clock only counts while one is running
+        private int running;
+        private long runningSince;
+
+        synchronized void begin(long files, long bytes) {
+            expectedFiles += files;
+            expectedBytes += bytes;
+            if (running++ == 0) {
+                runningSince = System.nanoTime();
+            }
+        }
+
+        synchronized void skip(long bytes) {
+            expectedBytes -= bytes;
+        }
+
+        synchronized void end() {
+            if (running > 0 && --running == 0) {
+                wallNanos += System.nanoTime() - runningSince;
+            }
+        }
+
+        synchronized boolean isRunning() {
+            return running > 0;
+        }
+
+        synchronized void reset() {
+            files.reset();
+            bytes.reset();
+            cachedFiles.reset();
+            errors.reset();
+            busyNanos.reset();
+            cpuNanos.reset();
+            expectedFiles = 0;
+            expectedBytes = 0;
+            wallNanos = 0;
+            running = 0;
+        }
+
+        synchronized PhaseStats stats(Phase phase) {
+            long wall = wallNanos + (running > 0 ? System.nanoTime() - runningSince : 0);
+            return new PhaseStats(phase, files.sum(), bytes.sum(), cachedFiles.sum(), errors.sum(), expectedFiles,
+                expectedBytes, wall, busyNanos.sum(), cpuNanos.sum(), running > 0);
+        }
+    }
+
+    /**
+     * Read-only attributes for JMX: the elapsed time, the active phase, the whole snapshot as JSON, and per
+     * phase its counters and rates, named like {@code FullHashMegabytesPerSecond}.
+     */
+    private final class MetricsMBean implements DynamicMBean {
+        private final String[] fields = {
+            "Files", "Bytes", "CachedFiles", "Errors", "WallMillis", "BusyMillis", "CpuMillis", "FilesPerSecond",
+            "MegabytesPerSecond", "EtaSeconds"
+        };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            switch (attribute) {
+                case "ElapsedMillis":
+                    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos());
+                case "ActivePhase":
+                    Phase active = activePhase();
+                    return active != null ? active.displayName : "";
+                case "Json":
+                    return toJson();
+                default:
+                    break;
+            }
+            for (Phase phase : Phase.values()) {
+                String prefix = attributePrefix(phase);
+                if (attribute.startsWith(prefix)) {
+                    Object value = field(stats(phase), attribute.substring(prefix.length()));
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        private Object field(PhaseStats stats, String field) {
+            switch (field) {
+                case "Files":
+                    return stats.files;
+                case "Bytes":
+                    return stats.bytes;
+                case "CachedFiles":
+                    return stats.cachedFiles;
+                case "Errors":
+                    return stats.errors;
+                case "WallMillis":
+                    return TimeUnit.NANOSECONDS.toMillis(stats.wallNanos);
+                case "BusyMillis":
+                    return TimeUnit.NANOSECONDS.toMillis(stats.busyNanos);
+                case "CpuMillis":
+                    return TimeUnit.NANOSECONDS.toMillis(stats.cpuNanos);
+                case "FilesPerSecond":
+                    return stats.filesPerSecond();
+                case "MegabytesPerSecond":
+                    return stats.megabytesPerSecond();
+                case "EtaSeconds":
+                    return stats.etaSeconds();
+                default:
+                    return null;
+            }
+        }
+
+        private String attributePrefix(Phase phase) {
+            return Character.toUpperCase(phase.id.charAt(0)) + phase.id.substring(1);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList values = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    values.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown names are left out, as the DynamicMBean contract allows
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Scan metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Scan metrics have no operations: " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(attribute("ElapsedMillis", "long", "Milliseconds since the scan started"));
+            attributes.add(attribute("ActivePhase", "java.lang.String", "Phase started last, if still running"));
+            attributes.add(attribute("Json", "java.lang.String", "All metrics as JSON"));
+            for (Phase phase : Phase.values()) {
+                for (String field : fields) {
+                    boolean rate = field.endsWith("PerSecond");
+                    attributes.add(attribute(attributePrefix(phase) + field, rate ? "double" : "long",
+                        phase.displayName + ": " + field));
+                }
+            }
+            return new MBeanInfo(ScanMetrics.class.getName(), "Duplicate scan metrics per phase",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+/**
+ * Tunable scan parameters. Defaults come from the dff.* system properties; the command line can override
+ * individual fields before a {@link ScanEngine} is created from them.
+ */
+final class ScanSettings {
+    // Worker threads used for content hashing (-Ddff.hashThreads=N)
+    int hashThreads = Math.max(1, Integer.getInteger("dff.hashThreads", Runtime.getRuntime().availableProcessors()));
+    // Concurrent reads allowed against a single file store (-Ddff.ioPerDevice=N)
+    int ioPerDevice = Math.max(1, Integer.getInteger("dff.ioPerDevice", 4));
+    // Lower limit for disks the OS reports as rotational, where parallel reads mostly add seeks (-Ddff.ioPerSpinningDisk=N)
+    int ioPerSpinningDisk = Math.max(1, Integer.getInteger("dff.ioPerSpinningDisk", 1));
+    // Threads listing directories; listing is latency-bound, so more than the core count helps on network drives
+    int walkThreads = Math.max(1,
+        Integer.getInteger("dff.walkThreads", Math.max(4, Runtime.getRuntime().availableProcessors())));
+    // Maximum number of differing dHash bits for visually similar images (-Ddff.similarityThreshold=N)
+    int similarityThreshold = Integer.getInteger("dff.similarityThreshold", 5);
+    // Whether images are compared for visual similarity after exact duplicates are found
+    boolean findVisualDuplicates = true;
+    // How files with a unique size are hashed: lazy (on demand), background (after results) or eager
+    String uniqueHashMode = System.getProperty("dff.uniqueHashes", "lazy").toLowerCase();
+    // Content hash used for grouping (-Ddff.hashAlgorithm=fast|paranoid)
+    HashAlgorithm hashAlgorithm = HashAlgorithm.fromSystemProperties();
+    // How fast-hash matches are verified before deletion is offered: sha256, bytes or none
+    String confirmMode = System.getProperty("dff.confirm", "sha256").toLowerCase();
+    // Head/tail sample sizes tried before a full hash, smallest first (-Ddff.sampleStages=4096,65536)
+    int[] sampleStages = parseSampleStages(System.getProperty("dff.sampleStages", "4096,65536"));
+    // Live mode waits until the watched tree has been quiet this long before updating (-Ddff.watchQuiet=ms)
+    long watchQuietMillis = Math.max(0, Long.getLong("dff.watchQuiet", 1000));
+    // ... but never longer than this after the first change, so a steady stream of copies still shows up
+    long watchMaxDelayMillis = Math.max(0, Long.getLong("dff.watchMaxDelay", 10000));
+    // How often a running scan saves its checkpoint and the hash cache, so an interruption loses at most this much
+    long checkpointIntervalSeconds = Math.max(1, Long.getLong("dff.checkpointInterval", 30));
+    // Whether large files are chunked by content after the scan to find partial duplicates (--partial)
+    boolean findPartialDuplicates = false;
+    // Files at least this large take part in the partial-duplicate analysis (-Ddff.partialMinSize=bytes)
+    long partialMinSize = Math.max(1, Long.getLong("dff.partialMinSize", 16L << 20));
+    // Pairs are reported when they share at least this fraction of the smaller file (-Ddff.partialOverlap=0.5)
+    double partialOverlap = Double.parseDouble(System.getProperty("dff.partialOverlap", "0.5"));
+    // Average content-defined chunk size in bytes, rounded to a power of two (-Ddff.cdcChunkSize=bytes)
+    int cdcChunkSize = Integer.getInteger("dff.cdcChunkSize", 64 << 10);
+    // Memory for the chunk index; beyond it the index keeps a sample of the chunks (-Ddff.chunkIndexMemory=bytes)
+    long chunkIndexMemory = Long.getLong("dff.chunkIndexMemory", Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4));
+
+    static ScanSettings fromSystemProperties() {
+        return new ScanSettings();
+    }
+
+    static int[] parseSampleStages(String stages) {
+        if (stages.trim().isEmpty()) {
+            return new int[0];
+        }
+        int[] sizes = Arrays.stream(stages.split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .filter(size -> size > 0)
+            .toArray();
+        Arrays.sort(sizes);
+        return sizes;
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Multi-index hash over 64-bit perceptual hashes for "all pairs within Hamming distance k" queries.
+ * Each hash is split into m chunks; by the pigeonhole principle two hashes within distance k agree to within
+ * k / m bits in at least one chunk, so only the buckets reachable by flipping that many chunk bits are probed.
+ * With chunks about log2(n) bits wide the buckets stay tiny and the search scales close to linearly.
+ */
+final class SimilarityIndex {
+    interface PairConsumer {
+        void accept(int first, int second);
+    }
+
+    // Hashes clustered between checks for a pause or cancellation
+    private static final int CONTROL_INTERVAL = 4096;
+
+    private final long[] hashes;
+    private final int maxDistance;
+    private final int chunkCount;
+    private final int chunkRadius;
+    private final int[] chunkShifts;
+    private final int[] chunkBits;
+    // Per chunk: (chunk value << 32 | index), sorted so each bucket is a contiguous run
+    private final long[][] tables;
+    // Per chunk: the full hash of each table entry, so scanning a bucket reads memory sequentially
+    private final long[][] tableHashes;
+    // Per chunk: start of the run for each value of the chunk's top directoryBits bits
+    private final int[][] directories;
+    private final int directoryBits;
+
+    SimilarityIndex(long[] hashes, int maxDistance) {
+        this.hashes = hashes;
+        this.maxDistance = Math.max(0, maxDistance);
+
+        int bitsPerChunk = Math.max(8, 64 - Long.numberOfLeadingZeros(Math.max(1, hashes.length - 1)));
+        // At least three chunks keep every chunk within 22 bits, so packed table entries stay positive
+        this.chunkCount = Math.max(3, Math.min(this.maxDistance + 1, 64 / bitsPerChunk));
+        this.chunkRadius = this.maxDistance / chunkCount;
+        this.chunkShifts = new int[chunkCount];
+        this.chunkBits = new int[chunkCount];
+        int shift = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            chunkBits[chunk] = 64 / chunkCount + (chunk < 64 % chunkCount ? 1 : 0);
+            chunkShifts[chunk] = shift;
+            shift += chunkBits[chunk];
+        }
+
+        this.directoryBits = Math.min(chunkBits[chunkCount - 1], bitsPerChunk);
+        this.tables = new long[chunkCount][];
+        this.tableHashes = new long[chunkCount][];
+        this.directories = new int[chunkCount][];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            long[] table = new long[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                table[i] = (chunkValue(hashes[i], chunk) << 32) | i;
+            }
+            Arrays.sort(table);
+            tables[chunk] = table;
+            long[] sortedHashes = new long[table.length];
+            for (int position = 0; position < table.length; position++) {
+                sortedHashes[position] = hashes[(int) table[position]];
+            }
+            tableHashes[chunk] = sortedHashes;
+
+            int[] directory = new int[(1 << directoryBits) + 1];
+            int directoryShift = chunkBits[chunk] - directoryBits;
+            for (long entry : table) {
+                directory[(int) ((entry >>> 32) >>> directoryShift) + 1]++;
+            }
+            for (int prefix = 1; prefix < directory.length; prefix++) {
+                directory[prefix] += directory[prefix - 1];
+            }
+            directories[chunk] = directory;
+        }
+    }
+
+    static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    /** Reports every pair {@code first < second} within the index's maximum distance, possibly more than once. */
+    void forEachPair(PairConsumer consumer) {
+        forEachPair(0, hashes.length, consumer);
+    }
+
+    /** Like {@link #forEachPair(PairConsumer)}, for the pairs whose first index is in {@code [from, to)}. */
+    void forEachPair(int from, int to, PairConsumer consumer) {
+        for (int i = from; i < to; i++) {
+            int first = i;
+            forEachNeighbour(hashes[i], neighbour -> {
+                if (neighbour > first) {
+                    consumer.accept(first, neighbour);
+                }
+            });
+        }
+    }
+
+    /** Reports the index of every stored hash within the maximum distance of {@code hash}, possibly more than once. */
+    void forEachNeighbour(long hash, IntConsumer consumer) {
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            probe(hash, chunk, chunkValue(hash, chunk), 0, chunkRadius, consumer);
+        }
+    }
+
+    /**
+     * Groups hashes into connected components of the "within distance" relation using union-find, so
+     * grouping is transitive and independent of input order. Returns components with at least two members,
+     * each sorted ascending and ordered by their first member.
+     */
+    static List<int[]> cluster(long[] hashes, int maxDistance) {
+        int[] parent = newForest(hashes.length);
+        new SimilarityIndex(hashes, maxDistance).forEachPair((first, second) -> union(parent, first, second));
+        return components(parent);
+    }
+
+    /**
+     * Like {@link #cluster(long[], int)}, but pauses and stops with {@code control} every
+     * {@value #CONTROL_INTERVAL} hashes, so a large clustering can be paused or cancelled.
+     */
+    static List<int[]> cluster(long[] hashes, int maxDistance, ScanControl control) throws InterruptedException {
+        int[] parent = newForest(hashes.length);
+        SimilarityIndex index = new SimilarityIndex(hashes, maxDistance);
+        for (int from = 0; from < hashes.length; from += CONTROL_INTERVAL) {
+            control.check();
+            index.forEachPair(from, Math.min(hashes.length, from + CONTROL_INTERVAL),
+                (first, second) -> union(parent, first, second));
+        }
+        return components(parent);
+    }
+
+    private static int[] newForest(int size) {
+        int[] parent = new int[size];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        return parent;
+    }
+
+    private static List<int[]> components(int[] parent) {
+        int[] componentSize = new int[parent.length];
+        for (int i = 0; i < parent.length; i++) {
+            componentSize[find(parent, i)]++;
+        }
+        int[][] members = new int[parent.length][];
+        int[] filled = new int[parent.length];
+        List<int[]> clusters = new ArrayList<>();
+        for (int i = 0; i < parent.length; i++) {
+            int root = find(parent, i);
+            if (componentSize[root] < 2) {
+                continue;
+            }
+            if (members[root] == null) {
+                members[root] = new int[componentSize[root]];
+                clusters.add(members[root]);
+            }
+            members[root][filled[root]++] = i;
+        }
+        return clusters;
+    }
+
+    private void probe(long hash, int chunk, long value, int fromBit, int flipsLeft, IntConsumer consumer) {
+        scanBucket(hash, chunk, value, consumer);
+        if (flipsLeft == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < chunkBits[chunk]; bit++) {
+            probe(hash, chunk, value ^ (1L << bit), bit + 1, flipsLeft - 1, consumer);
+        }
+    }
+
+    private void scanBucket(long hash, int chunk, long value, IntConsumer consumer) {
+        long[] table = tables[chunk];
+        long[] sortedHashes = tableHashes[chunk];
+        int[] directory = directories[chunk];
+        int prefix = (int) (value >>> (chunkBits[chunk] - directoryBits));
+        for (int position = directory[prefix]; position < directory[prefix + 1]; position++) {
+            long bucketValue = table[position] >>> 32;
+            if (bucketValue > value) {
+                break;
+            }
+            if (bucketValue == value && distance(hash, sortedHashes[position]) <= maxDistance) {
+                consumer.accept((int) table[position]);
+            }
+        }
+    }
+
+    private long chunkValue(long hash, int chunk) {
+        return (hash >>> chunkShifts[chunk]) & ((1L << chunkBits[chunk]) - 1);
+    }
+
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
+        }
+        return node;
+    }
+
+    private static void union(int[] parent, int first, int second) {
+        int firstRoot = find(parent, first);
+        int secondRoot = find(parent, second);
+        if (firstRoot < secondRoot) {
+            parent[secondRoot] = firstRoot;
+        } else if (secondRoot < firstRoot) {
+            parent[firstRoot] = secondRoot;
+        }
+    }
+}
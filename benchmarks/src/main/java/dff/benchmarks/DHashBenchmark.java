@@ -0,0 +1,60 @@
+package dff.benchmarks;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding an image and computing its dHash, cycling through generated PNG originals and their JPEG
+ * near-duplicates. Decoding dominates, so the image size is a parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DHashBenchmark {
+    private static final int IMAGE_COUNT = 32;
+
+    @Param({ "640", "1920", "4000" })
+    public int width;
+
+    private Path directory;
+    private List<Path> images;
+    private Object engine;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createImages() throws Throwable {
+        directory = Fixtures.directory("images-" + width);
+        images = Fixtures.nearDuplicateImages(directory, IMAGE_COUNT, width, width * 3 / 4, width);
+        engine = Targets.newEngine(Collections.emptyMap());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImages() throws Exception {
+        Fixtures.release(directory);
+    }
+
+    @Benchmark
+    public long dHash() throws Throwable {
+        Path image = images.get(next);
+        next = (next + 1) % images.size();
+        return Targets.dHash(engine, image);
+    }
+}
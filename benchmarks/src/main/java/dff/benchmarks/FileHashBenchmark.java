@@ -0,0 +1,75 @@
+package dff.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full-file hashing through each read strategy of FileHasher, with the fast and the paranoid digest. The file
+ * is hashed once during setup, so every strategy reads from the page cache and the score is CPU and copy cost
+ * rather than disk speed; it is reported in hashes/s and MB/s. The chunked strategy is the tree hash of very
+ * large files, with its chunks digested in parallel. Sample hashing, the cheap first pass on same-size files, is
+ * measured alongside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileHashBenchmark {
+    @Param({ "1", "16", "256" })
+    public int sizeMb;
+
+    @Param({ "stream", "direct", "mapped", "auto", "chunked" })
+    public String strategy;
+
+    @Param({ "fast", "paranoid" })
+    public String digest;
+
+    private Path directory;
+    private Path file;
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void createFile() throws Throwable {
+        // Small enough chunks that even the 16 MB file is split; read before ChunkedHasher is first used
+        System.setProperty("dff.hashChunkSize", String.valueOf(4 << 20));
+        directory = Fixtures.directory("hash");
+        file = Fixtures.randomFile(directory, "data-" + sizeMb + ".bin", sizeMb * 1024L * 1024L, sizeMb);
+        bytes = Files.size(file);
+        Targets.hash(strategy, file, digest);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws Exception {
+        Fixtures.release(directory);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] fullHash(Throughput throughput) throws Throwable {
+        byte[] hash = Targets.hash(strategy, file, digest);
+        throughput.processed(1, bytes);
+        return hash;
+    }
+
+    @Benchmark
+    public byte[] sampleHash() throws Throwable {
+        return Targets.hashSample(file, 65536, Targets.newDigest(digest));
+    }
+}
@@ -0,0 +1,246 @@
+package dff.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates benchmark inputs from fixed seeds, so every run and every machine measures the same data. Fixtures
+ * go to a fresh temporary directory that is deleted after the trial; with -Ddff.bench.fixtures=DIR they are
+ * kept there and reused by later runs, which saves regenerating gigabytes between benchmark sessions.
+ */
+final class Fixtures {
+    /** Files in a generated tree, with their total size. */
+    static final class Tree {
+        final Path root;
+        final int files;
+        final long bytes;
+
+        Tree(Path root, int files, long bytes) {
+            this.root = root;
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final String FIXTURE_DIRECTORY = System.getProperty("dff.bench.fixtures");
+    private static final int FILES_PER_DIRECTORY = 200;
+    // Sizes every tree draws from; several files share each size, as in real photo and download folders
+    private static final int[] FILE_SIZES = {
+        512, 4096, 6000, 16384, 20000, 65536, 100000, 131072
+    };
+
+    private Fixtures() {
+    }
+
+    /** Returns the directory for a fixture, and whether it still has to be generated. */
+    static Path directory(String name) throws IOException {
+        if (FIXTURE_DIRECTORY == null) {
+            return Files.createTempDirectory("dff-bench-" + name);
+        }
+        return Files.createDirectories(Paths.get(FIXTURE_DIRECTORY, name));
+    }
+
+    static boolean isKept() {
+        return FIXTURE_DIRECTORY != null;
+    }
+
+    /** Deletes a generated fixture unless fixtures are being kept for reuse. */
+    static void release(Path directory) throws IOException {
+        if (isKept() || directory == null || !Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** A file of random bytes; an existing file of the right size is reused. */
+    static Path randomFile(Path directory, String name, long size, long seed) throws IOException {
+        Path file = directory.resolve(name);
+        if (Files.exists(file) && Files.size(file) == size) {
+            return file;
+        }
+        byte[] block = new byte[1 << 20];
+        new Random(seed).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * A tree of {@code fileCount} files in which every file shares its size with others. A quarter are exact
+     * copies of an earlier file, a quarter differ from one only in the last byte, a quarter only in the middle
+     * byte and the rest are unrelated, so each sampling stage and the full hash all have work to do. Contents
+     * are regenerated from per-file seeds rather than kept in memory.
+     */
+    static Tree sameSizeTree(Path root, int fileCount, long seed) throws IOException {
+        Random random = new Random(seed);
+        long[] contentSeeds = new long[fileCount];
+        int[] sizes = new int[fileCount];
+        long bytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            Path directory = root.resolve(String.format("d%03d", i / FILES_PER_DIRECTORY));
+            Files.createDirectories(directory);
+            Path file = directory.resolve(String.format("f%06d.bin", i));
+            int kind = i == 0 ? 3 : random.nextInt(4);
+            int original = i == 0 ? 0 : random.nextInt(i);
+            contentSeeds[i] = kind == 3 ? random.nextLong() : contentSeeds[original];
+            sizes[i] = kind == 3 ? FILE_SIZES[random.nextInt(FILE_SIZES.length)] : sizes[original];
+            bytes += sizes[i];
+            if (Files.exists(file) && Files.size(file) == sizes[i]) {
+                continue;
+            }
+            byte[] content = new byte[sizes[i]];
+            new Random(contentSeeds[i]).nextBytes(content);
+            if (kind == 1) {
+                content[content.length - 1] ^= 1;
+            } else if (kind == 2) {
+                content[content.length / 2] ^= 1;
+            }
+            Files.write(file, content);
+        }
+        return new Tree(root, fileCount, bytes);
+    }
+
+    /**
+     * {@code imageCount} images in groups of four near-duplicates: the original as PNG, then JPEG re-encodes of
+     * a rescaled, slightly brightened and slightly shifted version. Returns the image files.
+     */
+    static List<Path> nearDuplicateImages(Path directory, int imageCount, int width, int height, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        List<Path> images = new ArrayList<>();
+        for (int i = 0; images.size() < imageCount; i++) {
+            BufferedImage original = scene(random, width, height);
+            images.add(writeImage(original, directory.resolve(String.format("img%05d.png", i)), "png"));
+            if (images.size() < imageCount) {
+                images.add(writeImage(scaled(original, width * 3 / 4, height * 3 / 4),
+                    directory.resolve(String.format("img%05d-small.jpg", i)), "jpg"));
+            }
+            if (images.size() < imageCount) {
+                images.add(writeImage(brightened(original, 12),
+                    directory.resolve(String.format("img%05d-bright.jpg", i)), "jpg"));
+            }
+            if (images.size() < imageCount) {
+                images.add(writeImage(shifted(original, Math.max(1, width / 100)),
+                    directory.resolve(String.format("img%05d-shifted.jpg", i)), "jpg"));
+            }
+        }
+        return images;
+    }
+
+    /**
+     * {@code count} random 64-bit dHashes, a fifth of them planted within {@code maxDistance} bits of another
+     * hash, so clustering finds real neighbours instead of only probing empty buckets.
+     */
+    static long[] dHashes(int count, int maxDistance, long seed) {
+        Random random = new Random(seed);
+        long[] hashes = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(5) == 0) {
+                long hash = hashes[random.nextInt(i)];
+                int flips = random.nextInt(maxDistance + 1);
+                for (int flip = 0; flip < flips; flip++) {
+                    hash ^= 1L << random.nextInt(64);
+                }
+                hashes[i] = hash;
+            } else {
+                hashes[i] = random.nextLong();
+            }
+        }
+        return hashes;
+    }
+
+    private static BufferedImage scene(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(new GradientPaint(0, 0, randomColor(random), width, height, randomColor(random)));
+        graphics.fillRect(0, 0, width, height);
+        for (int shape = 0; shape < 24; shape++) {
+            graphics.setColor(randomColor(random));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int size = width / 20 + random.nextInt(width / 4);
+            if (random.nextBoolean()) {
+                graphics.fillOval(x - size / 2, y - size / 2, size, size);
+            } else {
+                graphics.fillRect(x - size / 2, y - size / 2, size, size * 2 / 3);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage scaled(BufferedImage source, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage brightened(BufferedImage source, int amount) {
+        BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < source.getHeight(); y++) {
+            for (int x = 0; x < source.getWidth(); x++) {
+                int rgb = source.getRGB(x, y);
+                int red = Math.min(255, ((rgb >> 16) & 0xFF) + amount);
+                int green = Math.min(255, ((rgb >> 8) & 0xFF) + amount);
+                int blue = Math.min(255, (rgb & 0xFF) + amount);
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage shifted(BufferedImage source, int pixels) {
+        BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(source, 0, 0, null);
+        graphics.drawImage(source, pixels, pixels, null);
+        graphics.dispose();
+        return image;
+    }
+
+    private static Color randomColor(Random random) {
+        return new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    private static Path writeImage(BufferedImage image, Path file, String format) throws IOException {
+        if (!Files.exists(file)) {
+            ImageIO.write(image, format, file.toFile());
+        }
+        return file;
+    }
+}
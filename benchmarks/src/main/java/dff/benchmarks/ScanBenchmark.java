@@ -0,0 +1,75 @@
+package dff.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole scan as the application runs it: walking the tree, size grouping, sampling, full hashing,
+ * confirmation and visual duplicate detection. The tree holds same-size files with exact and near copies plus
+ * a folder of near-duplicate images. The hash cache is switched off so every invocation does the full work;
+ * files/s and MB/s are reported next to the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ScanBenchmark {
+    private static final int IMAGE_COUNT = 64;
+
+    @Param({ "2000", "20000" })
+    public int files;
+
+    @Param({ "true", "false" })
+    public boolean visual;
+
+    private Path directory;
+    private Fixtures.Tree tree;
+    private long imageBytes;
+
+    @Setup(Level.Trial)
+    public void createTree() throws Exception {
+        // Set here rather than as fork arguments, so -jvmArgsAppend on the command line cannot drop them
+        System.setProperty("dff.hashCache", "off");
+        System.setProperty("dff.checkpoint", "off");
+        directory = Fixtures.directory("scan-" + files);
+        tree = Fixtures.sameSizeTree(directory.resolve("files"), files, files);
+        Path images = Files.createDirectories(directory.resolve("images"));
+        for (Path image : Fixtures.nearDuplicateImages(images, IMAGE_COUNT, 1024, 768, files)) {
+            imageBytes += Files.size(image);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws Exception {
+        Fixtures.release(directory);
+    }
+
+    @Benchmark
+    public Map<String, ?> scan(Throughput throughput) throws Throwable {
+        Map<String, Object> overrides = new HashMap<>();
+        overrides.put("findVisualDuplicates", visual);
+        Object engine = Targets.newEngine(overrides);
+        Targets.scan(engine, Collections.singletonList(directory));
+        throughput.processed(tree.files + IMAGE_COUNT, tree.bytes + imageBytes);
+        return Targets.exactDuplicates(engine);
+    }
+}
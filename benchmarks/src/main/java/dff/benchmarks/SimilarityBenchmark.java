@@ -0,0 +1,60 @@
+package dff.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Grouping dHash sets of 10k to 1M images into clusters of visually similar images, and the Hamming distance
+ * used for each candidate pair. The sets plant near neighbours, so the index does real verification work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SimilarityBenchmark {
+    @Param({ "10000", "100000", "1000000" })
+    public int count;
+
+    @Param({ "5" })
+    public int threshold;
+
+    private long[] hashes;
+
+    @Setup(Level.Trial)
+    public void createHashes() {
+        hashes = Fixtures.dHashes(count, threshold, count);
+    }
+
+    @Benchmark
+    public List<int[]> cluster() throws Throwable {
+        return Targets.cluster(hashes, threshold);
+    }
+
+    /** Distances from one hash to every other, the work a pairwise comparison would do per image. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int distanceScan() throws Throwable {
+        long probe = hashes[0];
+        int similar = 0;
+        for (long hash : hashes) {
+            if (Targets.distance(probe, hash) <= threshold) {
+                similar++;
+            }
+        }
+        return similar;
+    }
+}
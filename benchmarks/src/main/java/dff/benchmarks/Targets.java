@@ -0,0 +1,170 @@
+package dff.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entry points into the application. Its classes live in the unnamed package, which named packages cannot
+ * import, and JMH refuses benchmarks in the unnamed package; so the hot paths are bound here once as method
+ * handles. Handles in static final fields are constants to the JIT, so calls through them cost the same as
+ * direct calls once compiled.
+ */
+final class Targets {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle HASH = method("FileHasher", "hash", Path.class, MessageDigest.class);
+    private static final MethodHandle HASH_STREAM =
+        method("FileHasher", "hashStream", Path.class, MessageDigest.class);
+    private static final MethodHandle HASH_DIRECT =
+        method("FileHasher", "hashDirect", Path.class, MessageDigest.class);
+    private static final MethodHandle HASH_MAPPED =
+        method("FileHasher", "hashMapped", Path.class, MessageDigest.class);
+    private static final MethodHandle HASH_SAMPLE =
+        method("FileHasher", "hashSample", Path.class, int.class, MessageDigest.class);
+    private static final MethodHandle HASH_CHUNKED =
+        method("ChunkedHasher", "hash", Path.class, type("HashAlgorithm"));
+    private static final MethodHandle HASH_ALGORITHM_FOR_NAME =
+        method("HashAlgorithm", "forName", String.class);
+    private static final MethodHandle NEW_DIGEST = method("HashAlgorithm", "newDigest");
+    private static final MethodHandle DISTANCE = method("SimilarityIndex", "distance", long.class, long.class);
+    private static final MethodHandle CLUSTER = method("SimilarityIndex", "cluster", long[].class, int.class);
+    private static final MethodHandle SETTINGS = method("ScanSettings", "fromSystemProperties");
+    private static final MethodHandle NEW_ENGINE = constructor("ScanEngine", type("ScanSettings"));
+    private static final MethodHandle SCAN = method("ScanEngine", "scan", List.class, type("ScanEngine$Listener"));
+    private static final MethodHandle EXACT_DUPLICATES = method("ScanEngine", "exactDuplicates");
+    private static final MethodHandle VISUAL_DUPLICATES = method("ScanEngine", "visualDuplicates");
+    private static final MethodHandle CALCULATE_DHASH = method("ScanEngine", "calculateDHash", Path.class);
+    private static final Object SILENT_LISTENER = silentListener();
+
+    private Targets() {
+    }
+
+    /** Hashes with "stream", "direct", "mapped", "auto" (as the scan does) or "chunked" (a parallel tree hash). */
+    static byte[] hash(String strategy, Path file, String algorithm) throws Throwable {
+        if (strategy.equals("chunked")) {
+            return (byte[]) HASH_CHUNKED.invoke(file, hashAlgorithm(algorithm));
+        }
+        MessageDigest digest = newDigest(algorithm);
+        switch (strategy) {
+            case "stream":
+                return (byte[]) HASH_STREAM.invoke(file, digest);
+            case "direct":
+                return (byte[]) HASH_DIRECT.invoke(file, digest);
+            case "mapped":
+                return (byte[]) HASH_MAPPED.invoke(file, digest);
+            case "auto":
+                return (byte[]) HASH.invoke(file, digest);
+            default:
+                throw new IllegalArgumentException("Unknown hashing strategy: " + strategy);
+        }
+    }
+
+    static byte[] hashSample(Path file, int sampleSize, MessageDigest digest) throws Throwable {
+        return (byte[]) HASH_SAMPLE.invoke(file, sampleSize, digest);
+    }
+
+    /** A new digest for "fast" (Murmur3-128) or "paranoid" (SHA-256), as named by -Ddff.hashAlgorithm. */
+    static MessageDigest newDigest(String algorithm) throws Throwable {
+        return (MessageDigest) NEW_DIGEST.invoke(hashAlgorithm(algorithm));
+    }
+
+    private static Object hashAlgorithm(String name) throws Throwable {
+        Object hashAlgorithm = HASH_ALGORITHM_FOR_NAME.invoke(name);
+        if (hashAlgorithm == null) {
+            throw new IllegalArgumentException("Unknown hash algorithm: " + name);
+        }
+        return hashAlgorithm;
+    }
+
+    static int distance(long first, long second) throws Throwable {
+        return (int) DISTANCE.invokeExact(first, second);
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<int[]> cluster(long[] hashes, int maxDistance) throws Throwable {
+        return (List<int[]>) CLUSTER.invoke(hashes, maxDistance);
+    }
+
+    /** A scan engine configured from the dff.* system properties, with {@code overrides} applied on top. */
+    static Object newEngine(Map<String, Object> overrides) throws Throwable {
+        Object settings = SETTINGS.invoke();
+        for (Map.Entry<String, Object> override : overrides.entrySet()) {
+            Field field = settings.getClass().getDeclaredField(override.getKey());
+            field.setAccessible(true);
+            field.set(settings, override.getValue());
+        }
+        return NEW_ENGINE.invoke(settings);
+    }
+
+    static void scan(Object engine, List<Path> roots) throws Throwable {
+        SCAN.invoke(engine, roots, SILENT_LISTENER);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<Path>> exactDuplicates(Object engine) throws Throwable {
+        return (Map<String, List<Path>>) EXACT_DUPLICATES.invoke(engine);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, List<Path>> visualDuplicates(Object engine) throws Throwable {
+        return (Map<String, List<Path>>) VISUAL_DUPLICATES.invoke(engine);
+    }
+
+    static long dHash(Object engine, Path image) throws Throwable {
+        return (long) CALCULATE_DHASH.invoke(engine, image);
+    }
+
+    private static Object silentListener() {
+        Class<?> listener = type("ScanEngine$Listener");
+        return Proxy.newProxyInstance(listener.getClassLoader(), new Class<?>[] { listener },
+            (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return "silent listener";
+                    }
+                }
+                return null;
+            });
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not on the classpath: " + name, e);
+        }
+    }
+
+    private static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return LOOKUP.unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + className + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + className + " constructor", e);
+        }
+    }
+}
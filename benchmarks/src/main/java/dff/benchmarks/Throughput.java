@@ -0,0 +1,29 @@
+package dff.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Files and megabytes processed by a benchmark. In throughput mode JMH reports each counter divided by the
+ * measured time, which gives files/s and MB/s columns next to the ops/s score.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    public long files;
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        files = 0;
+        megabytes = 0;
+    }
+
+    void processed(long fileCount, long bytes) {
+        files += fileCount;
+        megabytes += bytes / (1024.0 * 1024.0);
+    }
+}